@@ -0,0 +1,85 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+// Loans that are still out, indexed by (ISBN, member) and by member, and counted per ISBN, all
+// case-insensitive.
+// Returned loans leave this set for the LoanArchive, so it only ever holds outstanding loans.
+public class ActiveLoans {
+    private final Map<String, ArrayDeque<Loan>> byPair = new HashMap<>();
+    // Issue order, for listing.
+    private final Set<Loan> ordered = new LinkedHashSet<>();
+    // Each member's loans in issue order; counting or listing them never looks at other members.
+    private final Map<String, Set<Loan>> byMember = new HashMap<>();
+    // Cached result of list(), dropped on every change.
+    private List<Loan> snapshot;
+    // Read without locking by availability checks.
+    private final Map<String, Integer> countByIsbn = new ConcurrentHashMap<>();
+
+    public synchronized void add(Loan loan) {
+        byPair.computeIfAbsent(pairKey(loan.getIsbn(), loan.getMemberId()), k -> new ArrayDeque<>()).addLast(loan);
+        ordered.add(loan);
+        snapshot = null;
+        byMember.computeIfAbsent(LibraryService.key(loan.getMemberId()), k -> new LinkedHashSet<>()).add(loan);
+        countByIsbn.merge(LibraryService.key(loan.getIsbn()), 1, Integer::sum);
+    }
+
+    // Removes and returns the oldest outstanding loan of the ISBN to the member, or null.
+    public synchronized Loan remove(String isbn, String memberId) {
+        String pair = pairKey(isbn, memberId);
+        ArrayDeque<Loan> loans = byPair.get(pair);
+        if (loans == null) return null;
+        Loan loan = loans.pollFirst();
+        if (loans.isEmpty()) byPair.remove(pair);
+        ordered.remove(loan);
+        snapshot = null;
+        String member = LibraryService.key(loan.getMemberId());
+        Set<Loan> mine = byMember.get(member);
+        mine.remove(loan);
+        if (mine.isEmpty()) byMember.remove(member);
+        countByIsbn.computeIfPresent(LibraryService.key(loan.getIsbn()), (k, n) -> n > 1 ? n - 1 : null);
+        return loan;
+    }
+
+    public int count(String isbn) {
+        return countByIsbn.getOrDefault(LibraryService.key(isbn), 0);
+    }
+
+    public synchronized int count(String isbn, String memberId) {
+        ArrayDeque<Loan> loans = byPair.get(pairKey(isbn, memberId));
+        return loans == null ? 0 : loans.size();
+    }
+
+    public synchronized int countForMember(String memberId) {
+        Set<Loan> loans = byMember.get(LibraryService.key(memberId));
+        return loans == null ? 0 : loans.size();
+    }
+
+    // Copy of the member's outstanding loans in issue order.
+    public synchronized List<Loan> listForMember(String memberId) {
+        Set<Loan> loans = byMember.get(LibraryService.key(memberId));
+        return loans == null ? new ArrayList<>() : new ArrayList<>(loans);
+    }
+
+    public synchronized int size() {
+        return ordered.size();
+    }
+
+    // Read-only copy in issue order. Taken once per change, so repeated reads between
+    // checkouts share one copy.
+    public synchronized List<Loan> list() {
+        if (snapshot == null) snapshot = Collections.unmodifiableList(new ArrayList<>(ordered));
+        return snapshot;
+    }
+
+    private static String pairKey(String isbn, String memberId) {
+        return LibraryService.key(isbn) + '\0' + LibraryService.key(memberId);
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+
+// List that only grows, for the catalogue and member lists. Reads never lock, and snapshot()
+// returns an immutable point-in-time view in O(1): elements are only ever written past the
+// end of the current view, and a full array is copied into a bigger one rather than changed
+// in place, so the elements under a view never change.
+public class AppendOnlyList<T> extends AbstractList<T> implements RandomAccess {
+
+    private static final class State {
+        final Object[] elements;
+        final int size;
+
+        State(Object[] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+    }
+
+    // Replaced on every add; a reader that loads it once sees one consistent version.
+    private volatile State state = new State(new Object[16], 0);
+
+    @Override
+    public synchronized boolean add(T element) {
+        State s = state;
+        Object[] elements = s.elements;
+        if (s.size == elements.length) elements = Arrays.copyOf(elements, s.size * 2);
+        elements[s.size] = element;
+        state = new State(elements, s.size + 1);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean addAll(Collection<? extends T> c) {
+        for (T element : c) add(element);
+        return !c.isEmpty();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        State s = state;
+        Objects.checkIndex(index, s.size);
+        return (T) s.elements[index];
+    }
+
+    @Override
+    public int size() {
+        return state.size;
+    }
+
+    // Read-only view of the elements present now; later adds don't show up in it.
+    public List<T> snapshot() {
+        return new View<>(state);
+    }
+
+    private static final class View<T> extends AbstractList<T> implements RandomAccess {
+        private final State state;
+
+        View(State state) {
+            this.state = state;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            Objects.checkIndex(index, state.size);
+            return (T) state.elements[index];
+        }
+
+        @Override
+        public int size() {
+            return state.size;
+        }
+    }
+}
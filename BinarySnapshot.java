@@ -0,0 +1,311 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+
+// Compact binary image of the whole library state (library.snap).
+//
+// Layout, after the 4-byte magic "LIBS" and an int version:
+//   long checkpoint                 last journal sequence number included
+//   long archive length             bytes of loan_history.txt that go with it (version 2 on)
+//   varint n, n strings             table of ISBNs and member IDs, referenced by index
+//   varint n, n books               isbnRef, title, author, int quantity
+//   varint n, n members             idRef, name, contact
+//   varint n, n loans               isbnRef, memberRef, int issue epoch-day, int due epoch-day
+//   varint n, n longs               returned flags as a bitset over the loans (only set in files
+//                                   from before loan_history.txt, which now holds returned loans)
+//   int crc32                       of every byte before it
+// Strings are a varint byte length followed by UTF-8 bytes.
+public class BinarySnapshot {
+    public static final String FILE = "library.snap";
+
+    private static final int MAGIC = 0x4C494253;
+    private static final int VERSION = 2;
+
+    public final List<Book> books;
+    public final List<Member> members;
+    public final LoanStore loans;
+    // Last journal sequence number included; only meaningful for a snapshot that was read.
+    public final long checkpoint;
+    // Committed length of loan_history.txt, or -1 for a version 1 snapshot that still holds returned loans.
+    public final long archiveLength;
+
+    // Book quantities are mutable, so a snapshot being written keeps the values
+    // captured under the caller's lock rather than reading the live objects.
+    private final int[] quantities;
+
+    private BinarySnapshot(List<Book> books, List<Member> members, LoanStore loans, long checkpoint,
+                           long archiveLength, int[] quantities) {
+        this.books = books;
+        this.members = members;
+        this.loans = loans;
+        this.checkpoint = checkpoint;
+        this.archiveLength = archiveLength;
+        this.quantities = quantities;
+    }
+
+    // Copies what is needed to write a consistent snapshot later; call while mutations are blocked.
+    public static BinarySnapshot capture(List<Book> books, List<Member> members, List<Loan> loans) {
+        int[] quantities = new int[books.size()];
+        for (int i = 0; i < quantities.length; i++) quantities[i] = books.get(i).getQuantity();
+        LoanStore store = new LoanStore();
+        for (Loan l : loans) store.add(l);
+        return new BinarySnapshot(new ArrayList<>(books), new ArrayList<>(members), store, 0, -1, quantities);
+    }
+
+    // Written to a temp file and renamed into place, like FileStorage's text files.
+    public void write(File file, long checkpoint, long archiveLength) throws IOException {
+        long start = System.nanoTime();
+        CRC32 crc = new CRC32();
+        File tmp = FileStorage.tempFile(file);
+        long size;
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fos, crc), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(checkpoint);
+            out.writeLong(archiveLength);
+
+            Map<String, Integer> refs = new HashMap<>();
+            List<String> table = new ArrayList<>();
+            for (Book b : books) ref(refs, table, b.getIsbn());
+            for (Member m : members) ref(refs, table, m.getMemberId());
+            int loanCount = loans.size();
+            for (int i = 0; i < loanCount; i++) {
+                ref(refs, table, loans.isbn(i));
+                ref(refs, table, loans.memberId(i));
+            }
+            writeVarint(out, table.size());
+            for (String s : table) writeString(out, s);
+
+            writeVarint(out, books.size());
+            for (int i = 0; i < books.size(); i++) {
+                Book b = books.get(i);
+                writeVarint(out, refs.get(b.getIsbn()));
+                writeString(out, b.getTitle());
+                writeString(out, b.getAuthor());
+                out.writeInt(quantities[i]);
+            }
+
+            writeVarint(out, members.size());
+            for (Member m : members) {
+                writeVarint(out, refs.get(m.getMemberId()));
+                writeString(out, m.getName());
+                writeString(out, m.getContact());
+            }
+
+            writeVarint(out, loanCount);
+            long[] words = new long[(loanCount + 63) >> 6];
+            for (int i = 0; i < loanCount; i++) {
+                writeVarint(out, refs.get(loans.isbn(i)));
+                writeVarint(out, refs.get(loans.memberId(i)));
+                out.writeInt(loans.issueDay(i));
+                out.writeInt(loans.dueDay(i));
+                if (loans.isReturned(i)) words[i >> 6] |= 1L << i;
+            }
+            writeVarint(out, words.length);
+            for (long w : words) out.writeLong(w);
+
+            out.flush();
+            // The checksum itself is written straight to the file, outside the checked stream.
+            new DataOutputStream(fos).writeInt((int) crc.getValue());
+            fos.getFD().sync();
+            size = fos.getChannel().position();
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        try {
+            FileStorage.replace(tmp, file);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        // Lines here are records: books, members and loans.
+        Metrics.recordIo("save", file.getName(), start, size, books.size() + members.size() + loans.size());
+    }
+
+    // The checksum is only known at the end, so every count and length read before it is first
+    // checked against the bytes left in the file: a corrupt one fails with an IOException
+    // instead of allocating whatever it says.
+    public static BinarySnapshot read(File file) throws IOException {
+        long start = System.nanoTime();
+        CRC32 crc = new CRC32();
+        try (InputStream raw = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            Remaining left = new Remaining(new CheckedInputStream(raw, crc), file.length());
+            DataInputStream in = new DataInputStream(left);
+            if (in.readInt() != MAGIC) throw new IOException("not a library snapshot: " + file);
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) throw new IOException("unsupported snapshot version " + version + ": " + file);
+            long checkpoint = in.readLong();
+            long archiveLength = version >= 2 ? in.readLong() : -1;
+
+            String[] table = new String[readLength(in, left, 1)];
+            for (int i = 0; i < table.length; i++) table[i] = readString(in, left);
+
+            // Smallest encodings: one-byte ref and string lengths, then the fixed-size fields.
+            int bookCount = readLength(in, left, 1 + 1 + 1 + 4);
+            List<Book> books = new ArrayList<>(bookCount);
+            for (int i = 0; i < bookCount; i++) {
+                String isbn = table[readRef(in, table.length)];
+                String title = readString(in, left);
+                String author = readString(in, left);
+                books.add(new Book(isbn, title, author, in.readInt()));
+            }
+
+            int memberCount = readLength(in, left, 1 + 1 + 1);
+            List<Member> members = new ArrayList<>(memberCount);
+            for (int i = 0; i < memberCount; i++) {
+                String id = table[readRef(in, table.length)];
+                String name = readString(in, left);
+                members.add(new Member(id, name, readString(in, left)));
+            }
+
+            int loanCount = readLength(in, left, 1 + 1 + 4 + 4);
+            int[] isbns = new int[loanCount];
+            int[] memberIds = new int[loanCount];
+            int[] issueDays = new int[loanCount];
+            int[] dueDays = new int[loanCount];
+            for (int i = 0; i < loanCount; i++) {
+                isbns[i] = readRef(in, table.length);
+                memberIds[i] = readRef(in, table.length);
+                issueDays[i] = in.readInt();
+                dueDays[i] = in.readInt();
+            }
+            long[] words = new long[readLength(in, left, 8)];
+            for (int i = 0; i < words.length; i++) words[i] = in.readLong();
+
+            int expected = (int) crc.getValue();
+            int actual = new DataInputStream(raw).readInt();
+            if (expected != actual) throw new IOException("snapshot checksum mismatch: " + file);
+
+            LoanStore loans = new LoanStore();
+            for (int i = 0; i < loanCount; i++) {
+                boolean returned = (i >> 6) < words.length && (words[i >> 6] & (1L << i)) != 0;
+                loans.add(table[isbns[i]], table[memberIds[i]], issueDays[i], dueDays[i], returned);
+            }
+            Metrics.recordIo("load", file.getName(), start, file.length(), bookCount + memberCount + loanCount);
+            return new BinarySnapshot(books, members, loans, checkpoint, archiveLength, null);
+        }
+    }
+
+    private static int readRef(DataInputStream in, int tableSize) throws IOException {
+        int ref = readVarint(in);
+        if (ref >= tableSize) throw new IOException("corrupt snapshot: bad string reference");
+        return ref;
+    }
+
+    private static void ref(Map<String, Integer> refs, List<String> table, String s) {
+        if (refs.putIfAbsent(s, table.size()) == null) table.add(s);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, Remaining left) throws IOException {
+        byte[] bytes = new byte[readLength(in, left, 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // A count of items taking at least bytesEach bytes apiece, or a string's byte length.
+    private static int readLength(DataInputStream in, Remaining left, int bytesEach) throws IOException {
+        int n = readVarint(in);
+        if ((long) n * bytesEach > left.bytes) throw new IOException("corrupt snapshot: length " + n + " runs past the end of the file");
+        return n;
+    }
+
+    // Counts down the bytes of the file not read yet.
+    private static class Remaining extends FilterInputStream {
+        long bytes;
+
+        Remaining(InputStream in, long bytes) {
+            super(in);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) bytes--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) bytes -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            bytes -= skipped;
+            return skipped;
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (v < 0) throw new IOException("corrupt snapshot: negative length");
+                return v;
+            }
+        }
+        throw new IOException("corrupt snapshot: varint too long");
+    }
+
+    // Converts between the text files and library.snap in a data directory.
+    // Usage: java BinarySnapshot --to-binary|--to-text [dataDir]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !(args[0].equals("--to-binary") || args[0].equals("--to-text"))) {
+            System.out.println("Usage: java BinarySnapshot --to-binary|--to-text [dataDir]");
+            return;
+        }
+        FileStorage storage = args.length > 1 ? new FileStorage(new File(args[1])) : new FileStorage();
+        storage.recover();
+        File snap = storage.file(FILE);
+        if (Journal.exists(storage.getDirectory())) {
+            System.out.println("A journal is pending in " + storage.getDirectory() + "; start and close the library once to fold it in first.");
+            return;
+        }
+        if (args[0].equals("--to-binary")) {
+            List<Book> books = storage.loadBooks();
+            List<Member> members = storage.loadMembers();
+            LoanStore loans = storage.loadLoans();
+            long checkpoint = Math.max(storage.readCheckpoint(FileStorage.BOOKS_FILE),
+                    Math.max(storage.readCheckpoint(FileStorage.MEMBERS_FILE), storage.readCheckpoint(FileStorage.LOANS_FILE)));
+            capture(books, members, loans.asList()).write(snap, checkpoint, storage.readArchiveLength());
+            System.out.println("Wrote " + snap + " (" + books.size() + " books, " + members.size()
+                    + " members, " + loans.size() + " loans)");
+        } else {
+            BinarySnapshot s = read(snap);
+            boolean ok = storage.saveSnapshot(FileStorage.BOOKS_FILE, FileStorage.toBookLines(s.books), s.checkpoint)
+                    && storage.saveSnapshot(FileStorage.MEMBERS_FILE, FileStorage.toMemberLines(s.members), s.checkpoint)
+                    && storage.saveSnapshot(FileStorage.LOANS_FILE, FileStorage.toLoanLines(s.loans.asList(), s.archiveLength), s.checkpoint);
+            // The text files are now the current state; a leftover snapshot would shadow later edits.
+            if (ok && snap.delete()) System.out.println("Wrote text files and removed " + snap);
+        }
+    }
+}
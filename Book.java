@@ -5,7 +5,7 @@ public class Book {
     private String isbn;       
     private String title;      
     private String author;     
-    private int quantity;      
+    private volatile int quantity;      
 
     public Book(String isbn, String title, String author, int quantity) {
         this.isbn = isbn;
@@ -42,18 +42,16 @@ public class Book {
 
   
     public static Book fromFileString(String line) {
-        if (line == null) return null;
-        String[] parts = line.split("\\|", -1); 
-        if (parts.length < 4) return null;
-        String isbn = unescape(parts[0]);
-        String title = unescape(parts[1]);
-        String author = unescape(parts[2]);
-        int quantity = 0;
-        try {
-            quantity = Integer.parseInt(parts[3]);
-        } catch (NumberFormatException e) {
-            quantity = 0;
-        }
+        RecordParser p = RecordParser.local();
+        return p.reset(line) ? fromRecord(p) : null;
+    }
+
+    static Book fromRecord(RecordParser p) {
+        if (p.fieldCount() < 4) return null;
+        String isbn = p.string(0);
+        String title = p.string(1);
+        String author = p.string(2);
+        int quantity = p.intValue(3, 0);
         return new Book(isbn, title, author, quantity);
     }
 
@@ -63,24 +61,6 @@ public class Book {
         return s.replace("\\", "\\\\").replace("|", "\\|");
     }
 
-    private static String unescape(String s) {
-        if (s == null) return "";
-        StringBuilder out = new StringBuilder();
-        boolean escaping = false;
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (escaping) {
-                out.append(c);
-                escaping = false;
-            } else if (c == '\\') {
-                escaping = true;
-            } else {
-                out.append(c);
-            }
-        }
-        return out.toString();
-    }
-
     @Override
     public String toString() {
         return "ISBN: " + isbn + ", Title: " + title + ", Author: " + author + ", Quantity: " + quantity;
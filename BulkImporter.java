@@ -0,0 +1,235 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+
+// Streams a CSV of books (isbn,title,author,quantity) or members (memberId,name,contact) into
+// the library. Lines are read in chunks and each chunk is parsed and validated in parallel.
+// Books are merged by ISBN the way addBook merges them and members deduplicated by ID, and
+// the result is handed to the service in one call, so the data files are written once.
+// A header line is skipped if present.
+public class BulkImporter {
+    private static final int CHUNK_LINES = 8192;
+    private static final int MAX_LISTED_REJECTS = 100;
+
+    public static Report importBooks(Library service, File csv) throws IOException {
+        Map<String, Book> merged = new LinkedHashMap<>();
+        Report report = new Report();
+        read(csv, "isbn", report, fields -> {
+            if (fields.size() != 4) throw new IllegalArgumentException("expected 4 fields, found " + fields.size());
+            String isbn = required(fields, 0, "ISBN");
+            String title = required(fields, 1, "title");
+            String author = required(fields, 2, "author");
+            int quantity;
+            try {
+                quantity = Integer.parseInt(fields.get(3).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("quantity is not a number: " + fields.get(3));
+            }
+            if (quantity < 0) throw new IllegalArgumentException("quantity is negative: " + quantity);
+            return new Book(isbn, title, author, quantity);
+        }, (Book b) -> {
+            Book existing = merged.putIfAbsent(LibraryService.key(b.getIsbn()), b);
+            if (existing == null) return;
+            // Same rule as addBook: the first title and author stay, quantities add up.
+            existing.setQuantity(Math.addExact(existing.getQuantity(), b.getQuantity()));
+            report.merged++;
+        });
+        long start = System.nanoTime();
+        service.addBooks(merged.values());
+        report.commitMillis = (System.nanoTime() - start) / 1_000_000;
+        report.committed = merged.size();
+        return report;
+    }
+
+    public static Report importMembers(Library service, File csv) throws IOException {
+        Map<String, Member> unique = new LinkedHashMap<>();
+        Report report = new Report();
+        read(csv, "memberid", report, fields -> {
+            if (fields.size() != 3) throw new IllegalArgumentException("expected 3 fields, found " + fields.size());
+            return new Member(required(fields, 0, "member ID"), required(fields, 1, "name"), required(fields, 2, "contact"));
+        }, (Member m) -> {
+            // Same rule as addMember: the first member with an ID wins.
+            if (unique.putIfAbsent(LibraryService.key(m.getMemberId()), m) != null) report.merged++;
+        });
+        long start = System.nanoTime();
+        report.committed = service.addMembers(unique.values());
+        report.commitMillis = (System.nanoTime() - start) / 1_000_000;
+        return report;
+    }
+
+    private interface RowParser<T> {
+        T parse(List<String> fields);
+    }
+
+    // Reads the file chunk by chunk; rows of a chunk are parsed in parallel, then handed to
+    // accept in file order.
+    @SuppressWarnings("unchecked")
+    private static <T> void read(File csv, String headerField, Report report, RowParser<T> parser,
+                                 Consumer<T> accept) throws IOException {
+        long start = System.nanoTime();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8), 1 << 16)) {
+            List<String> chunk = new ArrayList<>(CHUNK_LINES);
+            int lineNo = 0;
+            int chunkStart = 1;
+            boolean first = true;
+            String line;
+            while (true) {
+                line = br.readLine();
+                if (line != null) {
+                    lineNo++;
+                    if (first && !line.trim().isEmpty()) {
+                        first = false;
+                        List<String> fields = splitCsv(line);
+                        if (fields != null && fields.get(0).trim().replace(" ", "").equalsIgnoreCase(headerField)) {
+                            line = "";
+                        }
+                    }
+                    chunk.add(line);
+                }
+                if (chunk.size() == CHUNK_LINES || (line == null && !chunk.isEmpty())) {
+                    List<String> lines = chunk;
+                    Object[] parsed = new Object[lines.size()];
+                    IntStream.range(0, lines.size()).parallel().forEach(i -> parsed[i] = parseRow(lines.get(i), parser));
+                    for (int i = 0; i < parsed.length; i++) {
+                        Object p = parsed[i];
+                        if (p == null) continue;
+                        report.rows++;
+                        if (p instanceof Rejection) {
+                            report.reject(chunkStart + i, ((Rejection) p).reason);
+                            continue;
+                        }
+                        try {
+                            accept.accept((T) p);
+                        } catch (ArithmeticException e) {
+                            report.reject(chunkStart + i, "quantity overflows when merged");
+                        }
+                    }
+                    chunkStart = lineNo + 1;
+                    chunk = new ArrayList<>(CHUNK_LINES);
+                }
+                if (line == null) break;
+            }
+        }
+        report.parseMillis = (System.nanoTime() - start) / 1_000_000;
+    }
+
+    // Parsed record, a Rejection, or null for a blank line.
+    private static Object parseRow(String line, RowParser<?> parser) {
+        if (line.trim().isEmpty()) return null;
+        List<String> fields = splitCsv(line);
+        if (fields == null) return new Rejection("unterminated quoted field");
+        try {
+            return parser.parse(fields);
+        } catch (IllegalArgumentException e) {
+            return new Rejection(e.getMessage());
+        }
+    }
+
+    private static String required(List<String> fields, int i, String name) {
+        String v = fields.get(i).trim();
+        if (v.isEmpty()) throw new IllegalArgumentException(name + " is empty");
+        return v;
+    }
+
+    // Splits one CSV line: commas separate fields, double quotes enclose fields that contain
+    // commas, and "" inside quotes is a literal quote. Returns null if a quote is left open.
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) return null;
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static class Rejection {
+        final String reason;
+
+        Rejection(String reason) {
+            this.reason = reason;
+        }
+    }
+
+    public static class Report {
+        public int rows;
+        // Distinct books or members handed to the service; for members, the ones that were new.
+        public int committed;
+        // Rows folded into an earlier row with the same ISBN or member ID.
+        public int merged;
+        public int rejected;
+        public final List<String> rejections = new ArrayList<>();
+        public long parseMillis;
+        public long commitMillis;
+
+        void reject(int lineNo, String reason) {
+            rejected++;
+            if (rejections.size() < MAX_LISTED_REJECTS) rejections.add("line " + lineNo + ": " + reason);
+        }
+
+        public double rowsPerSecond() {
+            long millis = Math.max(1, parseMillis + commitMillis);
+            return rows * 1000.0 / millis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows in %d ms (parse %d ms, commit %d ms, %.0f rows/s): %d committed, %d merged, %d rejected",
+                    rows, parseMillis + commitMillis, parseMillis, commitMillis, rowsPerSecond(), committed, merged, rejected);
+        }
+    }
+
+    // Usage: java BulkImporter books|members <file.csv>
+    // Writes to the data directory of a normal start (library.dataDir, library.journal).
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 || !(args[0].equals("books") || args[0].equals("members"))) {
+            System.out.println("Usage: java BulkImporter books|members <file.csv>");
+            return;
+        }
+        File csv = new File(args[1]);
+        if (!csv.isFile()) {
+            System.out.println("File not found: " + csv);
+            return;
+        }
+        Library service = Library.open();
+        try {
+            Report report = args[0].equals("books") ? importBooks(service, csv) : importMembers(service, csv);
+            System.out.println("Imported " + args[0] + ": " + report);
+            for (String r : report.rejections) System.out.println("  rejected " + r);
+            if (report.rejected > report.rejections.size()) {
+                System.out.println("  ... and " + (report.rejected - report.rejections.size()) + " more");
+            }
+        } finally {
+            service.close();
+        }
+    }
+}
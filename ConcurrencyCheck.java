@@ -0,0 +1,144 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+
+// Stress check for issueBook/returnBook on a single ISBN: many threads issue and return the same
+// book at once while another thread samples the active loans. Fails (exit code 1) if more loans
+// are ever out than there are copies, or if the available count ever goes below 0.
+//
+// Usage: java ConcurrencyCheck [--threads 16] [--rounds 500] [--copies 3] [--journal]
+public class ConcurrencyCheck {
+
+    private static final String ISBN = "978-0-00-000000-1";
+
+    public static void main(String[] args) throws Exception {
+        int threads = 16;
+        int rounds = 500;
+        int copies = 3;
+        boolean journaled = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                case "--copies": copies = Integer.parseInt(args[++i]); break;
+                case "--journal": journaled = true; break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        Path dir = Files.createTempDirectory("library-check");
+        List<String> failures;
+        try {
+            failures = run(dir.toFile(), threads, rounds, copies, journaled);
+        } finally {
+            deleteRecursively(dir);
+        }
+        if (!failures.isEmpty()) {
+            for (String f : failures) System.out.println("FAIL: " + f);
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static List<String> run(File dir, int threads, int rounds, int copies, boolean journaled) throws Exception {
+        List<String> failures = new ArrayList<>();
+        LibraryService service = new LibraryService(new FileStorage(dir), journaled);
+        try {
+            service.addBook(new Book(ISBN, "Concurrency in Practice", "Goetz", copies));
+            for (int t = 0; t < threads; t++) service.addMember(new Member("M" + t, "Member " + t, "m" + t + "@example.com"));
+
+            AtomicInteger issued = new AtomicInteger();
+            AtomicInteger refused = new AtomicInteger();
+            AtomicInteger lostReturns = new AtomicInteger();
+            AtomicBoolean done = new AtomicBoolean();
+            CountDownLatch start = new CountDownLatch(1);
+
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String memberId = "M" + t;
+                final int n = rounds;
+                Thread w = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int r = 0; r < n; r++) {
+                        if (!service.issueBook(ISBN, memberId, 14)) {
+                            refused.incrementAndGet();
+                            continue;
+                        }
+                        issued.incrementAndGet();
+                        if (service.returnBook(ISBN, memberId) < 0) lostReturns.incrementAndGet();
+                    }
+                }, "worker-" + t);
+                w.start();
+                workers.add(w);
+            }
+
+            // Samples what the service itself reports while the workers run.
+            int[] worst = {0, copies};
+            int[] samples = {0};
+            Thread sampler = new Thread(() -> {
+                while (!done.get()) {
+                    int active = activeFor(service);
+                    worst[0] = Math.max(worst[0], active);
+                    worst[1] = Math.min(worst[1], copies - active);
+                    samples[0]++;
+                    Thread.onSpinWait();
+                }
+            }, "sampler");
+            sampler.start();
+
+            start.countDown();
+            for (Thread w : workers) w.join();
+            done.set(true);
+            sampler.join();
+
+            System.out.println(threads + " threads x " + rounds + " rounds on " + copies + " copies: "
+                    + issued.get() + " issued, " + refused.get() + " refused, " + samples[0] + " samples");
+            if (worst[0] > copies) failures.add(worst[0] + " active loans seen, only " + copies + " copies");
+            if (worst[1] < 0) failures.add("available went down to " + worst[1]);
+            if (lostReturns.get() > 0) failures.add(lostReturns.get() + " returns found no active loan");
+            if (issued.get() == 0) failures.add("no loan was ever issued");
+            if (activeFor(service) != 0) failures.add(activeFor(service) + " loans still out after every return");
+            if (!service.isBookAvailable(ISBN)) failures.add("book not available after every return");
+        } finally {
+            service.close();
+        }
+
+        // What was saved must agree: every loan is back.
+        LibraryService reopened = new LibraryService(new FileStorage(dir), journaled);
+        try {
+            if (activeFor(reopened) != 0) failures.add(activeFor(reopened) + " loans out after reopening");
+        } finally {
+            reopened.close();
+        }
+        return failures;
+    }
+
+    private static int activeFor(LibraryService service) {
+        int n = 0;
+        for (Loan l : service.getActiveLoans()) {
+            if (l.getIsbn().equalsIgnoreCase(ISBN)) n++;
+        }
+        return n;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
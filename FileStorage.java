@@ -1,7 +1,16 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 
 public class FileStorage {
@@ -9,101 +18,299 @@ public class FileStorage {
     public static final String BOOKS_FILE = "books.txt";
     public static final String MEMBERS_FILE = "members.txt";
     public static final String LOANS_FILE = "loans.txt";
+    // Returned loans, appended to by LoanArchive; loans.txt only holds loans that are still out.
+    public static final String HISTORY_FILE = "loan_history.txt";
+    // Optional first line recording the last journal sequence number folded into the file.
+    public static final String CHECKPOINT_PREFIX = "#checkpoint=";
+    // Header line in loans.txt recording how many bytes of the loan history go with it.
+    public static final String ARCHIVE_PREFIX = "#archive=";
+    // Last line of a saved file: CRC-32 (hex) of every byte before it.
+    public static final String CHECKSUM_PREFIX = "#crc32=";
+    // A save writes <name>.tmp and renames it over <name>; one left behind means a crash.
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    // Bytes mapped at a time while checking a checksum.
+    private static final long CHECKSUM_WINDOW = 16 << 20;
+
+    private static final Metrics.Counter READ_ERRORS = Metrics.counter("storage.errors.read");
+    private static final Metrics.Counter WRITE_ERRORS = Metrics.counter("storage.errors.write");
+    private static final Metrics.Counter CHECKSUM_ERRORS = Metrics.counter("storage.errors.checksum");
+    private static final Metrics.Counter RECOVERED = Metrics.counter("storage.recovered");
+
+    private final File dir;
+
+    // Data files live in library.dataDir, or the working directory by default.
+    public FileStorage() {
+        this(new File(System.getProperty("library.dataDir", ".")));
+    }
+
+    public FileStorage(File dir) {
+        this.dir = dir;
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    public File file(String name) {
+        return new File(dir, name);
+    }
 
     
-    public static void saveBooks(List<Book> books) {
-        writeLines(BOOKS_FILE, toBookLines(books));
+    public boolean saveBooks(List<Book> books) {
+        return writeLines(file(BOOKS_FILE), toBookLines(books));
     }
 
-    public static List<Book> loadBooks() {
-        List<String> lines = readLines(BOOKS_FILE);
-        List<Book> books = new ArrayList<>();
-        for (String line : lines) {
-            Book b = Book.fromFileString(line);
-            if (b != null) books.add(b);
-        }
+    public List<Book> loadBooks() {
+        long start = System.nanoTime();
+        List<Book> books = loadChecked(file(BOOKS_FILE), sum -> ParallelLoader.load(file(BOOKS_FILE), Book::fromRecord, sum));
+        recordLoad(BOOKS_FILE, start, books.size());
         return books;
     }
 
   
-    public static void saveMembers(List<Member> members) {
-        writeLines(MEMBERS_FILE, toMemberLines(members));
+    public boolean saveMembers(List<Member> members) {
+        return writeLines(file(MEMBERS_FILE), toMemberLines(members));
     }
 
-    public static List<Member> loadMembers() {
-        List<String> lines = readLines(MEMBERS_FILE);
-        List<Member> members = new ArrayList<>();
-        for (String line : lines) {
-            Member m = Member.fromFileString(line);
-            if (m != null) members.add(m);
-        }
+    public List<Member> loadMembers() {
+        long start = System.nanoTime();
+        List<Member> members = loadChecked(file(MEMBERS_FILE), sum -> ParallelLoader.load(file(MEMBERS_FILE), Member::fromRecord, sum));
+        recordLoad(MEMBERS_FILE, start, members.size());
         return members;
     }
 
    
-    public static void saveLoans(List<Loan> loans) {
-        writeLines(LOANS_FILE, toLoanLines(loans));
+    public boolean saveLoans(List<Loan> loans, long archiveLength) {
+        return writeLines(file(LOANS_FILE), toLoanLines(loans, archiveLength));
     }
 
-    public static List<Loan> loadLoans() {
-        List<String> lines = readLines(LOANS_FILE);
-        List<Loan> loans = new ArrayList<>();
-        for (String line : lines) {
-            Loan l = Loan.fromFileString(line);
-            if (l != null) loans.add(l);
+    public LoanStore loadLoans() {
+        long start = System.nanoTime();
+        List<LoanStore> parts = loadChecked(file(LOANS_FILE),
+                sum -> ParallelLoader.loadChunks(file(LOANS_FILE), Long.MAX_VALUE, LoanStore::new, LoanStore::add, sum));
+        LoanStore loans;
+        if (parts.size() == 1) {
+            loans = parts.get(0);
+        } else {
+            loans = new LoanStore();
+            for (LoanStore part : parts) loans.addAll(part);
         }
+        recordLoad(LOANS_FILE, start, loans.size());
         return loans;
     }
 
+    // Lines counts the records loaded; header and malformed lines are not included.
+    private void recordLoad(String name, long start, int records) {
+        Metrics.recordIo("load", name, start, file(name).length(), records);
+    }
+
+
+    public boolean saveSnapshot(String name, List<String> lines, long checkpoint) {
+        List<String> out = new ArrayList<>(lines.size() + 1);
+        out.add(CHECKPOINT_PREFIX + checkpoint);
+        out.addAll(lines);
+        return writeLines(file(name), out);
+    }
+
+    public long readCheckpoint(String name) {
+        return readHeader(name, CHECKPOINT_PREFIX, 0);
+    }
+
+    // Length of loan_history.txt that goes with loans.txt, or -1 if loans.txt predates the history file.
+    public long readArchiveLength() {
+        return readHeader(LOANS_FILE, ARCHIVE_PREFIX, -1);
+    }
+
+    // Header lines are the leading lines starting with '#'.
+    private long readHeader(String name, String prefix, long defaultValue) {
+        File file = file(name);
+        if (!file.exists()) return defaultValue;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null && line.startsWith("#")) {
+                if (line.startsWith(prefix)) return Long.parseLong(line.substring(prefix.length()).trim());
+            }
+        } catch (IOException | NumberFormatException e) {
+            READ_ERRORS.increment();
+            System.out.println("Error reading header: " + file + " -> " + e.getMessage());
+        }
+        return defaultValue;
+    }
+
     
-    private static List<String> toBookLines(List<Book> books) {
+    static List<String> toBookLines(List<Book> books) {
         List<String> list = new ArrayList<>();
         for (Book b : books) list.add(b.toFileString());
         return list;
     }
 
-    private static List<String> toMemberLines(List<Member> members) {
+    static List<String> toMemberLines(List<Member> members) {
         List<String> list = new ArrayList<>();
         for (Member m : members) list.add(m.toFileString());
         return list;
     }
 
-    private static List<String> toLoanLines(List<Loan> loans) {
+    // A negative archiveLength leaves out the header, as in files written before loan_history.txt.
+    static List<String> toLoanLines(List<Loan> loans, long archiveLength) {
         List<String> list = new ArrayList<>();
+        if (archiveLength >= 0) list.add(ARCHIVE_PREFIX + archiveLength);
         for (Loan l : loans) list.add(l.toFileString());
         return list;
     }
 
-    private static List<String> readLines(String path) {
-        List<String> lines = new ArrayList<>();
-        File file = new File(path);
-        if (!file.exists()) {
-            return lines; 
-        }
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                lines.add(line);
+    // Writes <name>.tmp with a checksum footer, syncs it, and renames it over the file, so the
+    // file is always either the old version or the new one, never a mix.
+    private static boolean writeLines(File file, List<String> lines) {
+        long start = System.nanoTime();
+        File tmp = tempFile(file);
+        try {
+            long size;
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                CRC32 crc = new CRC32();
+                BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new CheckedOutputStream(fos, crc), StandardCharsets.UTF_8));
+                for (String line : lines) {
+                    bw.write(line);
+                    bw.newLine();
+                }
+                bw.flush();
+                // Written past the checked stream, so the footer isn't part of its own checksum.
+                fos.write((CHECKSUM_PREFIX + String.format("%08x", crc.getValue()) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+                fos.getFD().sync();
+                size = fos.getChannel().position();
             }
+            replace(tmp, file);
+            Metrics.recordIo("save", file.getName(), start, size, lines.size());
+            return true;
         } catch (IOException e) {
-            System.out.println("Error reading file: " + path + " -> " + e.getMessage());
+            WRITE_ERRORS.increment();
+            tmp.delete();
+            System.out.println("Error writing file: " + file + " -> " + e.getMessage());
+            return false;
         }
-        return lines;
     }
 
-    private static void writeLines(String path, List<String> lines) {
-        File file = new File(path);
-        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
-            for (String line : lines) {
-                bw.write(line);
-                bw.newLine();
-            }
+    static File tempFile(File file) {
+        return new File(file.getPath() + TEMP_SUFFIX);
+    }
+
+    // Renames a fully written and synced temp file over target, then syncs the directory so
+    // the rename itself survives a crash.
+    static void replace(File tmp, File target) throws IOException {
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        try (FileChannel dir = FileChannel.open(target.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ)) {
+            dir.force(true);
         } catch (IOException e) {
-            System.out.println("Error writing file: " + path + " -> " + e.getMessage());
+            // Some platforms (Windows) can't open or sync a directory; the rename still happened.
         }
     }
-}
 
+    // Deals with temp files left by a crash mid-save, before anything is loaded. A complete
+    // one (checksum intact) was synced but not yet renamed, so it is newer than the file and
+    // takes its place; a torn one is deleted. Returns how many were put in place.
+    public int recover() {
+        int recovered = 0;
+        for (String name : new String[]{BOOKS_FILE, MEMBERS_FILE, LOANS_FILE, BinarySnapshot.FILE}) {
+            File target = file(name);
+            File tmp = tempFile(target);
+            if (!tmp.exists()) continue;
+            boolean complete;
+            if (name.equals(BinarySnapshot.FILE)) {
+                try {
+                    BinarySnapshot.read(tmp);
+                    complete = true;
+                } catch (IOException | RuntimeException e) {
+                    complete = false;
+                }
+            } else {
+                complete = checksum(tmp) == Boolean.TRUE;
+            }
+            if (complete) {
+                try {
+                    replace(tmp, target);
+                    recovered++;
+                    RECOVERED.increment();
+                    System.out.println("Recovered " + name + " from an interrupted save");
+                    continue;
+                } catch (IOException e) {
+                    System.out.println("Error recovering " + tmp + " -> " + e.getMessage());
+                }
+            } else {
+                System.out.println("Discarding incomplete save: " + tmp);
+            }
+            tmp.delete();
+        }
+        return recovered;
+    }
+
+    // Loads the file with load, checking it against its footer in the same pass. A file whose
+    // checksum doesn't match is still loaded, since it is the only copy; the counter and message
+    // say it was damaged after it was written.
+    private static <T> T loadChecked(File file, Function<ParallelLoader.Checksum, T> load) {
+        long[] footer = null;
+        if (file.exists()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                footer = footer(channel);
+            } catch (IOException e) {
+                // The load itself reports it.
+            }
+        }
+        ParallelLoader.Checksum sum = footer == null ? null : new ParallelLoader.Checksum(footer[0]);
+        T result = load.apply(sum);
+        if (sum != null && sum.value() != footer[1]) {
+            CHECKSUM_ERRORS.increment();
+            READ_ERRORS.increment();
+            System.out.println("Checksum mismatch, file was damaged after it was saved: " + file);
+        }
+        return result;
+    }
 
+    // Whether the bytes before the #crc32= footer match it; null if the file has no footer
+    // (missing, or written before checksums).
+    static Boolean checksum(File file) {
+        if (!file.exists()) return null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long[] footer = footer(channel);
+            if (footer == null) return null;
+            // A mapping can't exceed 2 GB, so the bytes are checked a window at a time.
+            CRC32 crc = new CRC32();
+            for (long pos = 0; pos < footer[0]; pos += CHECKSUM_WINDOW) {
+                long length = Math.min(CHECKSUM_WINDOW, footer[0] - pos);
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, length));
+            }
+            return crc.getValue() == footer[1];
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
 
+    // Offset of the #crc32= footer line and the CRC it records (-1 if unreadable, so it never
+    // matches), or null if the last line is not a footer.
+    private static long[] footer(FileChannel channel) throws IOException {
+        long size = channel.size();
+        // The footer is short: find the start of the last line within the tail.
+        int tailLength = (int) Math.min(size, 64);
+        ByteBuffer tail = ByteBuffer.allocate(tailLength);
+        channel.read(tail, size - tailLength);
+        byte[] bytes = tail.array();
+        int end = tailLength;
+        if (end > 0 && bytes[end - 1] == '\n') end--;
+        if (end > 0 && bytes[end - 1] == '\r') end--;
+        int lineStart = end;
+        while (lineStart > 0 && bytes[lineStart - 1] != '\n') lineStart--;
+        if (lineStart == 0 && size > tailLength) return null;
+        String last = new String(bytes, lineStart, end - lineStart, StandardCharsets.UTF_8);
+        if (!last.startsWith(CHECKSUM_PREFIX)) return null;
+        long expected;
+        try {
+            expected = Long.parseLong(last.substring(CHECKSUM_PREFIX.length()), 16);
+        } catch (NumberFormatException e) {
+            expected = -1;
+        }
+        return new long[] {size - tailLength + lineStart, expected};
+    }
+}
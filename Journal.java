@@ -0,0 +1,186 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+
+public class Journal {
+
+    public static final String JOURNAL_FILE = "journal.txt";
+    // Segment being folded into the snapshot files by a compaction.
+    public static final String ROTATED_FILE = "journal.old";
+
+    public static final String ADD_BOOK = "ADD_BOOK";
+    public static final String ADD_MEMBER = "ADD_MEMBER";
+    public static final String ISSUE = "ISSUE";
+    public static final String RETURN = "RETURN";
+
+    private static final char CHECKSUM_MARK = '~';
+    private static final Metrics.Counter TORN_RECORDS = Metrics.counter("journal.tornRecords");
+
+    private final File dir;
+    private FileOutputStream file;
+    private Writer out;
+    private long lastSeq;
+
+    public Journal(File dir, long lastSeq) {
+        this.dir = dir;
+        this.lastSeq = lastSeq;
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    // Record format: ~crc|seq|TYPE|payload, where payload is the entity's toFileString() and
+    // crc is the CRC-32 (hex) of "seq|TYPE|payload", so a record torn by a crash is detected
+    // even where it still parses. Records from older journals have no "~crc|" and are trusted.
+    // The record is buffered; it is durable only after the next sync().
+    public synchronized long append(String type, String payload) throws IOException {
+        if (out == null) {
+            file = new FileOutputStream(new File(dir, JOURNAL_FILE), true);
+            out = new BufferedWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8));
+        }
+        long seq = ++lastSeq;
+        String record = seq + "|" + type + "|" + payload;
+        out.write(CHECKSUM_MARK + String.format("%08x", crc(record)) + "|" + record);
+        out.write(System.lineSeparator());
+        return seq;
+    }
+
+    private static long crc(String record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    public synchronized void sync() throws IOException {
+        if (out == null) return;
+        out.flush();
+        file.getFD().sync();
+    }
+
+
+    public synchronized void rotate() {
+        close();
+        File current = new File(dir, JOURNAL_FILE);
+        if (!current.exists()) return;
+        File rotated = new File(dir, ROTATED_FILE);
+        if (!rotated.exists()) {
+            if (!current.renameTo(rotated)) {
+                System.out.println("Error rotating journal: " + JOURNAL_FILE);
+            }
+            return;
+        }
+        // A previous compaction did not finish; keep its records and add ours after them.
+        List<String> lines = readLines(current);
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rotated, true), StandardCharsets.UTF_8))) {
+            for (String line : lines) {
+                bw.write(line);
+                bw.newLine();
+            }
+        } catch (IOException e) {
+            System.out.println("Error rotating journal: " + JOURNAL_FILE + " -> " + e.getMessage());
+            return;
+        }
+        current.delete();
+    }
+
+    public synchronized void deleteRotated() {
+        new File(dir, ROTATED_FILE).delete();
+    }
+
+    public synchronized void deleteAll() {
+        close();
+        new File(dir, ROTATED_FILE).delete();
+        new File(dir, JOURNAL_FILE).delete();
+    }
+
+    public synchronized void close() {
+        if (out == null) return;
+        try {
+            sync();
+            out.close();
+        } catch (IOException e) {
+            System.out.println("Error closing journal: " + JOURNAL_FILE + " -> " + e.getMessage());
+        }
+        out = null;
+        file = null;
+    }
+
+    public static boolean exists(File dir) {
+        return new File(dir, JOURNAL_FILE).exists() || new File(dir, ROTATED_FILE).exists();
+    }
+
+
+    public static List<Entry> readAll(File dir) {
+        List<Entry> entries = new ArrayList<>();
+        for (String name : new String[]{ROTATED_FILE, JOURNAL_FILE}) {
+            for (String line : readLines(new File(dir, name))) {
+                Entry e = Entry.parse(line);
+                if (e != null) {
+                    entries.add(e);
+                } else {
+                    TORN_RECORDS.increment();
+                    System.out.println("Skipping damaged journal record in " + name + ": " + line);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static List<String> readLines(File file) {
+        List<String> lines = new ArrayList<>();
+        if (!file.exists()) return lines;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + file + " -> " + e.getMessage());
+        }
+        return lines;
+    }
+
+    public static class Entry {
+        public final long seq;
+        public final String type;
+        public final String payload;
+
+        Entry(long seq, String type, String payload) {
+            this.seq = seq;
+            this.type = type;
+            this.payload = payload;
+        }
+
+        // Returns null for lines torn by a crash mid-append.
+        static Entry parse(String line) {
+            if (!line.isEmpty() && line.charAt(0) == CHECKSUM_MARK) {
+                int bar = line.indexOf('|');
+                if (bar != 9) return null;
+                long expected;
+                try {
+                    expected = Long.parseLong(line.substring(1, bar), 16);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                line = line.substring(bar + 1);
+                if (crc(line) != expected) return null;
+            }
+            int first = line.indexOf('|');
+            if (first < 0) return null;
+            int second = line.indexOf('|', first + 1);
+            if (second < 0) return null;
+            long seq;
+            try {
+                seq = Long.parseLong(line.substring(0, first));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return new Entry(seq, line.substring(first + 1, second), line.substring(second + 1));
+        }
+    }
+}
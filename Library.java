@@ -0,0 +1,90 @@
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+
+// Operations the front ends (LibraryApp, LibraryGUI, LibraryServer, BulkImporter) use, so they
+// run the same against a single LibraryService or a ShardedLibraryService.
+//
+// Methods that change data return once the change is on disk. If the write fails they throw
+// UncheckedIOException; the change is then applied in memory but not yet saved (see
+// LibraryService.awaitDurable).
+public interface Library {
+
+    // A ShardedLibraryService when library.shards is more than 1, otherwise a LibraryService;
+    // both honour library.dataDir and library.journal.
+    static Library open() {
+        int shards = Integer.getInteger("library.shards", 1);
+        return shards > 1 ? new ShardedLibraryService(shards) : new LibraryService();
+    }
+
+    void addBook(Book book);
+
+    void addBooks(Collection<Book> newBooks);
+
+    Book findBookByIsbn(String isbn);
+
+    List<Book> searchBooksByTitle(String titlePart);
+
+    List<Book> searchBooksByAuthor(String authorPart);
+
+    List<Book> searchBooksByKeywords(String query);
+
+    List<Book> getAllBooks();
+
+    void addMember(Member member);
+
+    // Returns how many members were new.
+    int addMembers(Collection<Member> newMembers);
+
+    Member findMemberById(String id);
+
+    List<Member> getAllMembers();
+
+    boolean isBookAvailable(String isbn);
+
+    boolean issueBook(String isbn, String memberId, int days);
+
+    // Late fine, or -1 if there was no such active loan.
+    double returnBook(String isbn, String memberId);
+
+    LoanBatch issueBooks(List<LoanBatch.Item> items, boolean allOrNothing);
+
+    LoanBatch returnBooks(List<LoanBatch.Item> items, boolean allOrNothing);
+
+    void setMaxLoansPerMember(int max);
+
+    int getMaxLoansPerMember();
+
+    List<Loan> getAllLoans();
+
+    List<Loan> getActiveLoans();
+
+    List<Loan> getActiveLoans(String memberId);
+
+    int getActiveLoanCount(String memberId);
+
+    List<Loan> getLoanHistory();
+
+    List<Loan> getMemberHistory(String memberId);
+
+    // Folds every loan into accumulators from newPart, combined by merge (older loans on the
+    // left), without collecting the loans; used by ReportEngine.
+    <A> A scanLoans(Supplier<A> newPart, BiConsumer<A, Loan> accept, BinaryOperator<A> merge);
+
+    List<Loan> getOverdueLoans();
+
+    double getFineDue(Loan loan);
+
+    double getOutstandingFines(String memberId);
+
+    OverdueTracker.Report getLastOverdueReport();
+
+    SearchCache.Stats getSearchCacheStats();
+
+    void compact();
+
+    void close();
+}
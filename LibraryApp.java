@@ -1,28 +1,41 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Scanner;
 
 
 public class LibraryApp {
     private static final Scanner scanner = new Scanner(System.in);
-    private static final LibraryService service = new LibraryService();
+    private static final Library service = Library.open();
 
     public static void main(String[] args) {
        
         while (true) {
             printMenu();
             int choice = readInt("Choose an option: ");
-            switch (choice) {
-                case 1: addBookFlow(); break;
-                case 2: addMemberFlow(); break;
-                case 3: issueBookFlow(); break;
-                case 4: returnBookFlow(); break;
-                case 5: searchBookFlow(); break;
-                case 6: checkAvailabilityFlow(); break;
-                case 7: listAllBooks(); break;
-                case 8: listAllMembers(); break;
-                case 9: listAllLoans(); break;
-                case 0: System.out.println("Goodbye!"); return;
-                default: System.out.println("Invalid option. Try again.");
+            try {
+                switch (choice) {
+                    case 1: addBookFlow(); break;
+                    case 2: addMemberFlow(); break;
+                    case 3: issueBookFlow(); break;
+                    case 4: returnBookFlow(); break;
+                    case 5: searchBookFlow(); break;
+                    case 6: checkAvailabilityFlow(); break;
+                    case 7: listAllBooks(); break;
+                    case 8: listAllMembers(); break;
+                    case 9: listAllLoans(); break;
+                    case 10: overdueFlow(); break;
+                    case 11: showMetrics(); break;
+                    case 12: memberLoansFlow(); break;
+                    case 13: reportFlow(); break;
+                    case 0: service.close(); System.out.println("Goodbye!"); return;
+                    default: System.out.println("Invalid option. Try again.");
+                }
+            } catch (UncheckedIOException e) {
+                // The change is in memory and goes out with the next successful save.
+                System.out.println("Error saving changes -> " + e.getMessage());
             }
             System.out.println(); 
         }
@@ -36,11 +49,15 @@ public class LibraryApp {
         System.out.println("2. Add Member");
         System.out.println("3. Issue Book");
         System.out.println("4. Return Book");
-        System.out.println("5. Search Books (title/author)");
+        System.out.println("5. Search Books (title/author/keywords)");
         System.out.println("6. Check Book Availability");
         System.out.println("7. Display All Books");
         System.out.println("8. Display All Members");
         System.out.println("9. Display All Loans");
+        System.out.println("10. Overdue Loans and Fines");
+        System.out.println("11. Show Metrics");
+        System.out.println("12. Member Loans and History");
+        System.out.println("13. Circulation Reports (CSV/JSON)");
         System.out.println("0. Exit");
     }
 
@@ -94,7 +111,9 @@ public class LibraryApp {
         String memberId = readNonEmpty("Enter Member ID: ");
         int days = readInt("Enter number of days (loan period): ");
         boolean ok = service.issueBook(isbn, memberId, days);
+        int max = service.getMaxLoansPerMember();
         if (ok) System.out.println("Book issued successfully.");
+        else if (max > 0 && service.getActiveLoanCount(memberId) >= max) System.out.println("Cannot issue. Member already has " + max + " books out (the limit).");
         else System.out.println("Cannot issue. Check ISBN/member or availability.");
     }
 
@@ -114,6 +133,7 @@ public class LibraryApp {
     private static void searchBookFlow() {
         System.out.println("1. Search by Title");
         System.out.println("2. Search by Author");
+        System.out.println("3. Search by Keywords (best matches first)");
         int c = readInt("Choose: ");
         if (c == 1) {
             String t = readNonEmpty("Enter title keyword: ");
@@ -125,6 +145,11 @@ public class LibraryApp {
             List<Book> list = service.searchBooksByAuthor(a);
             if (list.isEmpty()) System.out.println("No books found.");
             for (Book b : list) System.out.println(b);
+        } else if (c == 3) {
+            String k = readNonEmpty("Enter keywords: ");
+            List<Book> list = service.searchBooksByKeywords(k);
+            if (list.isEmpty()) System.out.println("No books found.");
+            for (Book b : list) System.out.println(b);
         } else {
             System.out.println("Invalid choice.");
         }
@@ -148,12 +173,69 @@ public class LibraryApp {
         for (Member m : list) System.out.println(m);
     }
 
+    private static void overdueFlow() {
+        System.out.println("1. List Overdue Loans");
+        System.out.println("2. Outstanding Fines for a Member");
+        int c = readInt("Choose: ");
+        if (c == 1) {
+            OverdueTracker.Report report = service.getLastOverdueReport();
+            if (report != null) System.out.println(report);
+            List<Loan> list = service.getOverdueLoans();
+            if (list.isEmpty()) System.out.println("No overdue loans.");
+            for (Loan l : list) System.out.println(l + ", Fine so far: Rs." + service.getFineDue(l));
+        } else if (c == 2) {
+            String memberId = readNonEmpty("Enter Member ID: ");
+            System.out.println("Outstanding fines: Rs." + service.getOutstandingFines(memberId));
+        } else {
+            System.out.println("Invalid choice.");
+        }
+    }
+
     private static void listAllLoans() {
         List<Loan> list = service.getAllLoans();
         if (list.isEmpty()) System.out.println("No loans yet.");
         for (Loan l : list) System.out.println(l);
     }
-}
 
+    private static void memberLoansFlow() {
+        String memberId = readNonEmpty("Enter Member ID: ");
+        if (service.findMemberById(memberId) == null) {
+            System.out.println("Member not found.");
+            return;
+        }
+        List<Loan> active = service.getActiveLoans(memberId);
+        int max = service.getMaxLoansPerMember();
+        System.out.println("Books out: " + active.size() + (max > 0 ? " of " + max : ""));
+        for (Loan l : active) System.out.println(l);
+        List<Loan> history = service.getMemberHistory(memberId);
+        System.out.println("Returned: " + history.size());
+        for (Loan l : history) System.out.println(l);
+    }
 
+    private static void reportFlow() {
+        System.out.println("1. Loans per title per month");
+        System.out.println("2. Top borrowers");
+        System.out.println("3. Overdue ageing");
+        int c = readInt("Choose: ");
+        if (c < 1 || c > 3) {
+            System.out.println("Invalid option.");
+            return;
+        }
+        ReportEngine.Type type = ReportEngine.Type.values()[c - 1];
+        int top = type == ReportEngine.Type.TOP_BORROWERS ? readInt("How many borrowers: ") : 0;
+        int f = readInt("Format (1 = CSV, 2 = JSON): ");
+        ReportEngine.Format format = f == 2 ? ReportEngine.Format.JSON : ReportEngine.Format.CSV;
+        File out = new File(readNonEmpty("Output file: "));
+        try {
+            int rows = new ReportEngine(service, LocalDate.now()).write(type, format, top, out);
+            System.out.println("Wrote " + rows + " rows to " + out.getAbsolutePath());
+        } catch (IOException e) {
+            System.out.println("Error writing report -> " + e.getMessage());
+        }
+    }
 
+    private static void showMetrics() {
+        System.out.print(Metrics.dump());
+        System.out.println("Search cache: " + service.getSearchCacheStats());
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+
+// Micro-benchmarks for the LibraryService hot paths on synthetic data in a temp directory.
+// Each benchmark runs warm-up iterations, then timed iterations, and reports the mean time
+// per operation. Results are written as JSON (one object per benchmark and dataset size).
+//
+// Usage: java LibraryBenchmark [--sizes 10000,1000000,10000000] [--iterations 5]
+//                              [--iteration-ms 1000] [--journal] [--out benchmark-results.json]
+public class LibraryBenchmark {
+
+    private static final String[] WORDS = {"java", "basics", "advanced", "history", "modern", "garden",
+            "ocean", "physics", "poetry", "stories", "guide", "principles", "design", "systems", "art"};
+
+    private static volatile Object sink;
+
+    private final int iterations;
+    private final long iterationNanos;
+    private final List<String> results = new ArrayList<>();
+
+    LibraryBenchmark(int iterations, long iterationMillis) {
+        this.iterations = iterations;
+        this.iterationNanos = iterationMillis * 1_000_000L;
+    }
+
+    interface Op {
+        Object run(int i) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long[] sizes = {10_000, 1_000_000, 10_000_000};
+        int iterations = 5;
+        long iterationMillis = 1000;
+        boolean journaled = false;
+        String out = "benchmark-results.json";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes":
+                    String[] parts = args[++i].split(",");
+                    sizes = new long[parts.length];
+                    for (int j = 0; j < parts.length; j++) sizes[j] = Long.parseLong(parts[j].trim());
+                    break;
+                case "--iterations": iterations = Integer.parseInt(args[++i]); break;
+                case "--iteration-ms": iterationMillis = Long.parseLong(args[++i]); break;
+                case "--journal": journaled = true; break;
+                case "--out": out = args[++i]; break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        LibraryBenchmark bench = new LibraryBenchmark(iterations, iterationMillis);
+        for (long size : sizes) {
+            Path dir = Files.createTempDirectory("library-bench");
+            try {
+                bench.runAll(dir.toFile(), (int) size, journaled);
+            } finally {
+                deleteRecursively(dir);
+            }
+        }
+        bench.writeJson(new File(out));
+        System.out.println("Results written to " + out);
+    }
+
+    private void runAll(File dir, int records, boolean journaled) throws Exception {
+        System.out.println("Generating " + records + " loans in " + dir);
+        int bookCount = Math.max(100, records / 10);
+        int memberCount = Math.max(100, records / 100);
+        generate(dir, records, bookCount, memberCount);
+        String persistence = journaled ? "journal" : "snapshot";
+        FileStorage storage = new FileStorage(dir);
+
+        String[] sampleLines = new String[1024];
+        Random random = new Random(42);
+        for (int i = 0; i < sampleLines.length; i++) sampleLines[i] = randomBook(random, i).toFileString();
+        measure("Book.fromFileString", records, persistence, i -> Book.fromFileString(sampleLines[i & 1023]));
+
+        measure("FileStorage.loadLoans", records, persistence, i -> storage.loadLoans());
+
+        // Saving the loans still out, as a non-journaled issue or return does: the atomic
+        // temp-file path against the in-place rewrite it replaced.
+        File saveDir = new File(dir, "save");
+        saveDir.mkdirs();
+        FileStorage saveStorage = new FileStorage(saveDir);
+        List<Loan> active = new ArrayList<>();
+        for (Loan l : storage.loadLoans().asList()) {
+            if (!l.isReturned()) active.add(l);
+        }
+        measure("FileStorage.saveLoans", records, persistence, i -> saveStorage.saveLoans(active, 0));
+        File inPlace = new File(saveDir, "in-place.txt");
+        measure("FileStorage.saveLoans(in place)", records, persistence,
+                i -> writeInPlace(inPlace, FileStorage.toLoanLines(active, 0)));
+
+        LibraryService service = new LibraryService(storage, journaled);
+        try {
+            measure("LibraryService.isBookAvailable", records, persistence,
+                    i -> service.isBookAvailable(isbn(Math.floorMod(i * 7919, bookCount))));
+            measure("LibraryService.searchBooksByTitle", records, persistence,
+                    i -> service.searchBooksByTitle(WORDS[i % WORDS.length] + " " + WORDS[(i / 3) % WORDS.length]));
+
+            // Issue and return the same (isbn, member) pairs so the dataset stays the same size.
+            int[] issued = {0};
+            measure("LibraryService.issueBook", records, persistence, i -> {
+                issued[0] = i + 1;
+                return service.issueBook(isbn(i % bookCount), memberId(i % memberCount), 14);
+            });
+            // Bounded by the number of loans issued above, spread evenly over the iterations.
+            measure("LibraryService.returnBook", records, persistence, issued[0],
+                    i -> service.returnBook(isbn(i % bookCount), memberId(i % memberCount)));
+
+            // A ten-book kiosk checkout per op, then the matching returns.
+            int[] batches = {0};
+            measure("LibraryService.issueBooks(10)", records, persistence, i -> {
+                batches[0] = i + 1;
+                return service.issueBooks(kioskBatch(i, bookCount, memberCount), false);
+            });
+            measure("LibraryService.returnBooks(10)", records, persistence, batches[0],
+                    i -> service.returnBooks(kioskBatch(i, bookCount, memberCount), false));
+        } finally {
+            service.close();
+        }
+    }
+
+    private static List<LoanBatch.Item> kioskBatch(int i, int bookCount, int memberCount) {
+        List<LoanBatch.Item> items = new ArrayList<>(10);
+        for (int k = 0; k < 10; k++) {
+            items.add(new LoanBatch.Item(isbn((i * 10 + k) % bookCount), memberId(i % memberCount), 14));
+        }
+        return items;
+    }
+
+    private void measure(String name, int records, String persistence, Op op) throws Exception {
+        measure(name, records, persistence, Integer.MAX_VALUE, op);
+    }
+
+    private void measure(String name, int records, String persistence, int maxOps, Op op) throws Exception {
+        int perIteration = maxOps == Integer.MAX_VALUE ? Integer.MAX_VALUE : Math.max(1, maxOps / (iterations + 1));
+        int counter = 0;
+        // Warm-up: one iteration, results discarded.
+        counter = runIteration(op, counter, perIteration, null);
+        double[] scores = new double[iterations];
+        for (int it = 0; it < iterations; it++) {
+            long[] timing = new long[2];
+            counter = runIteration(op, counter, perIteration, timing);
+            scores[it] = timing[0] / 1000.0 / timing[1];
+        }
+        double mean = 0;
+        for (double s : scores) mean += s;
+        mean /= scores.length;
+        double var = 0;
+        for (double s : scores) var += (s - mean) * (s - mean);
+        double error = scores.length > 1 ? Math.sqrt(var / (scores.length - 1)) : 0;
+        System.out.printf(Locale.ROOT, "%-36s records=%-9d %12.3f us/op (+- %.3f)%n", name, records, mean, error);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("  {\"benchmark\": \"").append(name).append("\", \"mode\": \"avgt\", ");
+        sb.append("\"params\": {\"records\": \"").append(records).append("\", \"persistence\": \"").append(persistence).append("\"}, ");
+        sb.append("\"primaryMetric\": {\"score\": ").append(String.format(Locale.ROOT, "%.3f", mean));
+        sb.append(", \"scoreError\": ").append(String.format(Locale.ROOT, "%.3f", error));
+        sb.append(", \"scoreUnit\": \"us/op\", \"rawData\": [");
+        for (int i = 0; i < scores.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(String.format(Locale.ROOT, "%.3f", scores[i]));
+        }
+        sb.append("]}}");
+        results.add(sb.toString());
+    }
+
+    // Runs op until the iteration time or maxOps is used up (at least once). timing receives {nanos, ops}.
+    private int runIteration(Op op, int counter, int maxOps, long[] timing) throws Exception {
+        long start = System.nanoTime();
+        long ops = 0;
+        long now;
+        do {
+            sink = op.run(counter++);
+            ops++;
+            now = System.nanoTime();
+        } while (now - start < iterationNanos && ops < maxOps);
+        if (timing != null) {
+            timing[0] = now - start;
+            timing[1] = ops;
+        }
+        return counter;
+    }
+
+    private void writeJson(File file) throws IOException {
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            w.write("[\n");
+            w.write(String.join(",\n", results));
+            w.write("\n]\n");
+        }
+    }
+
+    // Writes the text files directly so even 10M loans never have to be held in memory.
+    private static void generate(File dir, int loanCount, int bookCount, int memberCount) throws IOException {
+        Random random = new Random(1);
+        try (BufferedWriter w = writer(new File(dir, FileStorage.BOOKS_FILE))) {
+            for (int i = 0; i < bookCount; i++) {
+                w.write(randomBook(random, i).toFileString());
+                w.newLine();
+            }
+        }
+        try (BufferedWriter w = writer(new File(dir, FileStorage.MEMBERS_FILE))) {
+            for (int i = 0; i < memberCount; i++) {
+                w.write(new Member(memberId(i), "Member " + i, "member" + i + "@example.com").toFileString());
+                w.newLine();
+            }
+        }
+        LocalDate base = LocalDate.of(2020, 1, 1);
+        try (BufferedWriter w = writer(new File(dir, FileStorage.LOANS_FILE))) {
+            for (int i = 0; i < loanCount; i++) {
+                LocalDate issue = base.plusDays(random.nextInt(1500));
+                // Roughly 1 in 20 loans is still out.
+                boolean returned = random.nextInt(20) != 0;
+                Loan l = new Loan(isbn(random.nextInt(bookCount)), memberId(random.nextInt(memberCount)),
+                        issue, issue.plusDays(14), returned);
+                w.write(l.toFileString());
+                w.newLine();
+            }
+        }
+    }
+
+    // The save path FileStorage used before atomic writes: truncate, write, sync.
+    private static boolean writeInPlace(File file, List<String> lines) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file);
+             BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
+            for (String line : lines) {
+                bw.write(line);
+                bw.newLine();
+            }
+            bw.flush();
+            fos.getFD().sync();
+        }
+        return true;
+    }
+
+    private static Book randomBook(Random random, int i) {
+        String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+        String author = "Author " + random.nextInt(5000);
+        // Large quantities so issueBook never fails for lack of copies.
+        return new Book(isbn(i), title, author, 1_000_000);
+    }
+
+    private static String isbn(int i) {
+        return "978" + String.format("%010d", i);
+    }
+
+    private static String memberId(int i) {
+        return "M" + i;
+    }
+
+    private static BufferedWriter writer(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
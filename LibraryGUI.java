@@ -1,21 +1,45 @@
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.util.List;
 
 
 public class LibraryGUI extends JFrame {
-    private final LibraryService service = new LibraryService();
+    private final Library service = Library.open();
 
     
-    private final DefaultTableModel booksModel = new DefaultTableModel(new String[]{"ISBN", "Title", "Author", "Quantity"}, 0);
-    private final JTable booksTable = new JTable(booksModel);
-
-    private final DefaultTableModel membersModel = new DefaultTableModel(new String[]{"Member ID", "Name", "Contact"}, 0);
-    private final JTable membersTable = new JTable(membersModel);
-
-    private final DefaultTableModel loansModel = new DefaultTableModel(new String[]{"ISBN", "Member ID", "Issue Date", "Due Date", "Returned"}, 0);
-    private final JTable loansTable = new JTable(loansModel);
+    // Service calls and table reloads run here, never on the EDT.
+    private final transient SwingTasks tasks = new SwingTasks();
+
+    // These read the service's lists in place; only the rows on screen are ever materialized.
+    private final ListTableModel<Book> booksModel = new ListTableModel<>(service::getAllBooks,
+            new String[]{"ISBN", "Title", "Author", "Quantity"},
+            List.of(Book::getIsbn, Book::getTitle, Book::getAuthor, Book::getQuantity));
+    private final JTable booksTable = sortableTable(booksModel);
+
+    private final ListTableModel<Member> membersModel = new ListTableModel<>(service::getAllMembers,
+            new String[]{"Member ID", "Name", "Contact"},
+            List.of(Member::getMemberId, Member::getName, Member::getContact));
+    private final JTable membersTable = sortableTable(membersModel);
+
+    private final ListTableModel<Loan> loansModel = new ListTableModel<>(service::getAllLoans,
+            new String[]{"ISBN", "Member ID", "Issue Date", "Due Date", "Returned"},
+            List.of(Loan::getIsbn, Loan::getMemberId, Loan::getIssueDate, Loan::getDueDate, Loan::isReturned));
+    private final JTable loansTable = sortableTable(loansModel);
+    // The loans tab lists the whole history, so it is read only while the tab is showing.
+    private final JTabbedPane tabs = new JTabbedPane();
+    private JPanel loansTab;
+    private boolean loansStale = true;
+
+    private final ListTableModel<Loan> overdueModel = new ListTableModel<>(service::getOverdueLoans,
+            new String[]{"ISBN", "Member ID", "Issue Date", "Due Date", "Fine So Far"},
+            List.of(Loan::getIsbn, Loan::getMemberId, Loan::getIssueDate, Loan::getDueDate, service::getFineDue));
+    private final JTable overdueTable = sortableTable(overdueModel);
+    private final JLabel sweepLabel = new JLabel();
 
     
     public LibraryGUI() {
@@ -24,19 +48,30 @@ public class LibraryGUI extends JFrame {
         setSize(900, 600);
         setLocationRelativeTo(null);
 
-        JTabbedPane tabs = new JTabbedPane();
+        loansTab = createLoansTab();
         tabs.addTab("Books", createBooksTab());
         tabs.addTab("Members", createMembersTab());
         tabs.addTab("Issue / Return", createIssueReturnTab());
         tabs.addTab("Search", createSearchTab());
-        tabs.addTab("Loans", createLoansTab());
+        tabs.addTab("Loans", loansTab);
+        tabs.addTab("Overdue", createOverdueTab());
+        tabs.addChangeListener(e -> {
+            if (loansStale) refreshLoansTable();
+        });
 
-        add(tabs);
+        add(tabs, BorderLayout.CENTER);
+        add(tasks.getStatusBar(), BorderLayout.SOUTH);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                service.close();
+            }
+        });
 
         
         refreshBooksTable();
         refreshMembersTable();
-        refreshLoansTable();
+        refreshOverdueTable();
     }
 
     
@@ -73,9 +108,14 @@ public class LibraryGUI extends JFrame {
                 return;
             }
             if (qty < 0) qty = 0;
-            service.addBook(new Book(isbn, title, author, qty));
-            showMsg("Book saved.");
-            refreshBooksTable();
+            Book book = new Book(isbn, title, author, qty);
+            tasks.run("Saving book", () -> {
+                service.addBook(book);
+                return null;
+            }, r -> {
+                showMsg("Book saved.");
+                refreshBooksTable();
+            });
             
             isbnField.setText("");
             titleField.setText("");
@@ -90,6 +130,7 @@ public class LibraryGUI extends JFrame {
         JButton refreshBtn = new JButton("Refresh");
         refreshBtn.addActionListener(e -> refreshBooksTable());
         JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        addFilter(bottom, booksModel);
         bottom.add(refreshBtn);
 
         panel.add(form, BorderLayout.NORTH);
@@ -99,12 +140,7 @@ public class LibraryGUI extends JFrame {
     }
 
     private void refreshBooksTable() {
-        
-        clearModel(booksModel);
-        List<Book> list = service.getAllBooks();
-        for (Book b : list) {
-            booksModel.addRow(new Object[]{b.getIsbn(), b.getTitle(), b.getAuthor(), b.getQuantity()});
-        }
+        tasks.reload(booksModel);
     }
 
     
@@ -135,9 +171,14 @@ public class LibraryGUI extends JFrame {
                 showMsg("Please fill all fields.");
                 return;
             }
-            service.addMember(new Member(id, name, contact));
-            showMsg("Member saved.");
-            refreshMembersTable();
+            Member member = new Member(id, name, contact);
+            tasks.run("Saving member", () -> {
+                service.addMember(member);
+                return null;
+            }, r -> {
+                showMsg("Member saved.");
+                refreshMembersTable();
+            });
             idField.setText("");
             nameField.setText("");
             contactField.setText("");
@@ -148,6 +189,7 @@ public class LibraryGUI extends JFrame {
         JButton refreshBtn = new JButton("Refresh");
         refreshBtn.addActionListener(e -> refreshMembersTable());
         JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        addFilter(bottom, membersModel);
         bottom.add(refreshBtn);
 
         panel.add(form, BorderLayout.NORTH);
@@ -157,11 +199,7 @@ public class LibraryGUI extends JFrame {
     }
 
     private void refreshMembersTable() {
-        clearModel(membersModel);
-        List<Member> list = service.getAllMembers();
-        for (Member m : list) {
-            membersModel.addRow(new Object[]{m.getMemberId(), m.getName(), m.getContact()});
-        }
+        tasks.reload(membersModel);
     }
 
     
@@ -195,13 +233,15 @@ public class LibraryGUI extends JFrame {
                 showMsg("Enter valid ISBN, Member ID, and days.");
                 return;
             }
-            boolean ok = service.issueBook(isbn, member, days);
-            if (ok) {
-                showMsg("Book issued.");
-                refreshLoansTable();
-            } else {
-                showMsg("Cannot issue. Check ISBN/member or availability.");
-            }
+            tasks.run("Issuing book", () -> service.issueBook(isbn, member, days), ok -> {
+                if (ok) {
+                    showMsg("Book issued.");
+                    refreshLoansTable();
+                    refreshOverdueTable();
+                } else {
+                    showMsg("Cannot issue. Check ISBN/member, availability or the member's loan limit.");
+                }
+            });
         });
 
         
@@ -227,15 +267,17 @@ public class LibraryGUI extends JFrame {
                 showMsg("Enter ISBN and Member ID.");
                 return;
             }
-            double fine = service.returnBook(isbn, member);
-            if (fine == -1) {
-                showMsg("Active loan not found.");
-            } else if (fine > 0) {
-                showMsg("Returned. Late fine: Rs." + fine);
-            } else {
-                showMsg("Returned. No fine.");
-            }
-            refreshLoansTable();
+            tasks.run("Returning book", () -> service.returnBook(isbn, member), fine -> {
+                if (fine == -1) {
+                    showMsg("Active loan not found.");
+                } else if (fine > 0) {
+                    showMsg("Returned. Late fine: Rs." + fine);
+                } else {
+                    showMsg("Returned. No fine.");
+                }
+                refreshLoansTable();
+                refreshOverdueTable();
+            });
         });
 
         panel.add(wrapWithTitled(issue, "Issue Book"));
@@ -249,7 +291,7 @@ public class LibraryGUI extends JFrame {
 
         JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
         JTextField queryField = new JTextField(25);
-        String[] modes = {"By Title", "By Author"};
+        String[] modes = {"By Title", "By Author", "By Keywords"};
         JComboBox<String> mode = new JComboBox<>(modes);
         JButton searchBtn = new JButton("Search");
         JButton checkBtn = new JButton("Check Availability");
@@ -273,16 +315,17 @@ public class LibraryGUI extends JFrame {
                 showMsg("Enter a search term.");
                 return;
             }
-            List<Book> list;
-            if (mode.getSelectedIndex() == 0) {
-                list = service.searchBooksByTitle(q);
-            } else {
-                list = service.searchBooksByAuthor(q);
-            }
-            for (Book b : list) {
-                searchModel.addRow(new Object[]{b.getIsbn(), b.getTitle(), b.getAuthor(), b.getQuantity()});
-            }
-            if (list.isEmpty()) showMsg("No books found.");
+            int selected = mode.getSelectedIndex();
+            tasks.run("Searching", () -> {
+                if (selected == 0) return service.searchBooksByTitle(q);
+                if (selected == 1) return service.searchBooksByAuthor(q);
+                return service.searchBooksByKeywords(q);
+            }, list -> {
+                for (Book b : list) {
+                    searchModel.addRow(new Object[]{b.getIsbn(), b.getTitle(), b.getAuthor(), b.getQuantity()});
+                }
+                if (list.isEmpty()) showMsg("No books found.");
+            });
         });
 
         checkBtn.addActionListener(e -> {
@@ -291,8 +334,8 @@ public class LibraryGUI extends JFrame {
                 showMsg("Enter an ISBN to check.");
                 return;
             }
-            boolean available = service.isBookAvailable(isbn);
-            showMsg(available ? "Available" : "Not available");
+            tasks.run("Checking availability", () -> service.isBookAvailable(isbn),
+                    available -> showMsg(available ? "Available" : "Not available"));
         });
 
         panel.add(top, BorderLayout.NORTH);
@@ -307,25 +350,83 @@ public class LibraryGUI extends JFrame {
         JButton refreshBtn = new JButton("Refresh");
         refreshBtn.addActionListener(e -> refreshLoansTable());
         JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        addFilter(bottom, loansModel);
         bottom.add(refreshBtn);
         panel.add(tableScroll, BorderLayout.CENTER);
         panel.add(bottom, BorderLayout.SOUTH);
         return panel;
     }
 
+    // While the loans tab is hidden this only marks it stale; it is reloaded when next shown.
     private void refreshLoansTable() {
-        clearModel(loansModel);
-        List<Loan> list = service.getAllLoans();
-        for (Loan l : list) {
-            loansModel.addRow(new Object[]{l.getIsbn(), l.getMemberId(), l.getIssueDate(), l.getDueDate(), l.isReturned()});
+        if (tabs.getSelectedComponent() != loansTab) {
+            loansStale = true;
+            return;
         }
+        loansStale = false;
+        tasks.reload(loansModel);
     }
 
-    
-    private static void clearModel(DefaultTableModel model) {
-        model.setRowCount(0);
+    private JPanel createOverdueTab() {
+        JPanel panel = new JPanel(new BorderLayout());
+        JTextField memberField = new JTextField(12);
+        JButton finesBtn = new JButton("Outstanding Fines");
+        JButton refreshBtn = new JButton("Refresh");
+        finesBtn.addActionListener(e -> {
+            String member = memberField.getText().trim();
+            if (member.isEmpty()) {
+                showMsg("Enter a Member ID.");
+                return;
+            }
+            tasks.run("Adding up fines", () -> service.getOutstandingFines(member),
+                    fines -> showMsg("Outstanding fines for " + member + ": Rs." + fines));
+        });
+        refreshBtn.addActionListener(e -> refreshOverdueTable());
+
+        JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        bottom.add(new JLabel("Member ID:"));
+        bottom.add(memberField);
+        bottom.add(finesBtn);
+        bottom.add(refreshBtn);
+        panel.add(sweepLabel, BorderLayout.NORTH);
+        panel.add(new JScrollPane(overdueTable), BorderLayout.CENTER);
+        panel.add(bottom, BorderLayout.SOUTH);
+        return panel;
+    }
+
+    private void refreshOverdueTable() {
+        tasks.reload(overdueModel);
+        OverdueTracker.Report report = service.getLastOverdueReport();
+        sweepLabel.setText(report == null ? "" : report.toString());
+    }
+
+    // Clicking a column header sorts by that column; clicking it again reverses the order.
+    private JTable sortableTable(ListTableModel<?> model) {
+        JTable table = new JTable(model);
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = table.columnAtPoint(e.getPoint());
+                if (column < 0) return;
+                model.sortBy(table.convertColumnIndexToModel(column));
+                tasks.reload(model);
+            }
+        });
+        return table;
     }
 
+    // Filter box applied when Enter is pressed.
+    private void addFilter(JPanel panel, ListTableModel<?> model) {
+        JTextField filterField = new JTextField(15);
+        filterField.addActionListener(e -> {
+            model.setFilter(filterField.getText());
+            tasks.reload(model);
+        });
+        panel.add(new JLabel("Filter:"));
+        panel.add(filterField);
+    }
+
+    
     private static JPanel wrapWithTitled(JComponent comp, String title) {
         JPanel p = new JPanel(new BorderLayout());
         p.setBorder(BorderFactory.createTitledBorder(title));
@@ -0,0 +1,275 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+// HTTP/JSON front end so several terminals can share one library. Every request runs
+// on its own virtual thread, so a request waiting for a group commit costs no platform thread.
+//
+//   GET  /books/{isbn}                  book, or 404
+//   GET  /books/{isbn}/availability     {"isbn": ..., "available": true|false}
+//   GET  /books?q=...&by=title|author|keywords
+//   GET  /members/{id}                  member, or 404
+//   POST /loans     isbn, memberId, days (default 14)   201; 404 for an unknown ISBN or member,
+//                                                       409 if no copy is left or the member is at the limit
+//   POST /returns   isbn, memberId                      {"fine": ...}, or 404 if no active loan
+//
+// POST parameters may be sent form-encoded in the body or in the query string. A bad parameter
+// or a malformed %-escape anywhere in the request gets 400.
+public class LibraryServer {
+    private static final int DEFAULT_LOAN_DAYS = 14;
+
+    static {
+        // The JDK server writes headers and body separately; with Nagle on, every keep-alive
+        // response waits out the client's delayed ACK (~40 ms). Read once, before the first server.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final Library service;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public LibraryServer(Library service, int port) throws IOException {
+        this.service = service;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/books", this::handle);
+        server.createContext("/members", this::handle);
+        server.createContext("/loans", this::handle);
+        server.createContext("/returns", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Waits up to delaySeconds for requests in flight; the service is left open.
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            String[] path;
+            Map<String, String> params;
+            try {
+                path = pathSegments(ex);
+                params = params(ex);
+            } catch (IllegalArgumentException e) {
+                // URLDecoder on a bad %-escape.
+                send(ex, 400, error("malformed request: " + e.getMessage()));
+                return;
+            }
+            String method = ex.getRequestMethod();
+            if (path.length == 0) {
+                send(ex, 404, error("not found"));
+            } else if (path[0].equals("books")) {
+                if (!method.equals("GET")) {
+                    send(ex, 405, error("use GET"));
+                } else if (path.length == 1) {
+                    search(ex, params);
+                } else if (path.length == 2) {
+                    Book b = service.findBookByIsbn(path[1]);
+                    if (b == null) send(ex, 404, error("unknown ISBN"));
+                    else send(ex, 200, json(b));
+                } else if (path.length == 3 && path[2].equals("availability")) {
+                    boolean available = service.isBookAvailable(path[1]);
+                    send(ex, 200, "{\"isbn\": " + quote(path[1]) + ", \"available\": " + available + "}");
+                } else {
+                    send(ex, 404, error("not found"));
+                }
+            } else if (path[0].equals("members")) {
+                if (!method.equals("GET")) {
+                    send(ex, 405, error("use GET"));
+                } else if (path.length == 2) {
+                    Member m = service.findMemberById(path[1]);
+                    if (m == null) send(ex, 404, error("unknown member"));
+                    else send(ex, 200, json(m));
+                } else {
+                    send(ex, 404, error("not found"));
+                }
+            } else if (path.length == 1 && (path[0].equals("loans") || path[0].equals("returns"))) {
+                if (!method.equals("POST")) send(ex, 405, error("use POST"));
+                else if (path[0].equals("loans")) issue(ex, params);
+                else giveBack(ex, params);
+            } else {
+                send(ex, 404, error("not found"));
+            }
+        } catch (RuntimeException e) {
+            send(ex, 500, error(String.valueOf(e.getMessage())));
+        } finally {
+            ex.close();
+        }
+    }
+
+    private void search(HttpExchange ex, Map<String, String> params) throws IOException {
+        String q = params.get("q");
+        if (q == null || q.trim().isEmpty()) {
+            send(ex, 400, error("missing q"));
+            return;
+        }
+        String by = params.getOrDefault("by", "keywords").toLowerCase(Locale.ROOT);
+        List<Book> result;
+        switch (by) {
+            case "title": result = service.searchBooksByTitle(q); break;
+            case "author": result = service.searchBooksByAuthor(q); break;
+            case "keywords": result = service.searchBooksByKeywords(q); break;
+            default:
+                send(ex, 400, error("by must be title, author or keywords"));
+                return;
+        }
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < result.size(); i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(json(result.get(i)));
+        }
+        send(ex, 200, sb.append(']').toString());
+    }
+
+    private void issue(HttpExchange ex, Map<String, String> params) throws IOException {
+        String isbn = params.get("isbn");
+        String memberId = params.get("memberId");
+        if (isbn == null || memberId == null) {
+            send(ex, 400, error("isbn and memberId are required"));
+            return;
+        }
+        int days;
+        try {
+            days = params.containsKey("days") ? Integer.parseInt(params.get("days")) : DEFAULT_LOAN_DAYS;
+        } catch (NumberFormatException e) {
+            send(ex, 400, error("days is not a number"));
+            return;
+        }
+        if (days <= 0) {
+            send(ex, 400, error("days must be positive"));
+        } else if (service.findBookByIsbn(isbn) == null) {
+            send(ex, 404, error("unknown ISBN"));
+        } else if (service.findMemberById(memberId) == null) {
+            send(ex, 404, error("unknown member"));
+        } else if (service.issueBook(isbn, memberId, days)) {
+            send(ex, 201, "{\"issued\": true}");
+        } else {
+            send(ex, 409, error("cannot issue: no copy available or loan limit reached"));
+        }
+    }
+
+    private void giveBack(HttpExchange ex, Map<String, String> params) throws IOException {
+        String isbn = params.get("isbn");
+        String memberId = params.get("memberId");
+        if (isbn == null || memberId == null) {
+            send(ex, 400, error("isbn and memberId are required"));
+            return;
+        }
+        double fine = service.returnBook(isbn, memberId);
+        if (fine == -1) send(ex, 404, error("active loan not found"));
+        else send(ex, 200, "{\"returned\": true, \"fine\": " + fine + "}");
+    }
+
+    private static String[] pathSegments(HttpExchange ex) {
+        String raw = ex.getRequestURI().getRawPath();
+        String[] parts = raw.replaceAll("^/+|/+$", "").split("/+");
+        if (parts.length == 1 && parts[0].isEmpty()) return new String[0];
+        for (int i = 0; i < parts.length; i++) parts[i] = decode(parts[i].replace("+", "%2B"));
+        return parts;
+    }
+
+    // Query string, plus a form-encoded body for POST.
+    private static Map<String, String> params(HttpExchange ex) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(ex.getRequestURI().getRawQuery(), params);
+        if (ex.getRequestMethod().equals("POST")) {
+            try (InputStream in = ex.getRequestBody()) {
+                parseForm(new String(in.readAllBytes(), StandardCharsets.UTF_8), params);
+            }
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> into) {
+        if (form == null || form.isEmpty()) return;
+        for (String pair : form.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String k = decode(eq < 0 ? pair : pair.substring(0, eq));
+            String v = eq < 0 ? "" : decode(pair.substring(eq + 1));
+            into.put(k, v);
+        }
+    }
+
+    private static String decode(String s) {
+        return URLDecoder.decode(s, StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange ex, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String json(Book b) {
+        return "{\"isbn\": " + quote(b.getIsbn()) + ", \"title\": " + quote(b.getTitle())
+                + ", \"author\": " + quote(b.getAuthor()) + ", \"quantity\": " + b.getQuantity() + "}";
+    }
+
+    private static String json(Member m) {
+        return "{\"memberId\": " + quote(m.getMemberId()) + ", \"name\": " + quote(m.getName())
+                + ", \"contact\": " + quote(m.getContact()) + "}";
+    }
+
+    private static String error(String message) {
+        return "{\"error\": " + quote(message) + "}";
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // Usage: java LibraryServer [port]   (default 8080; honours library.dataDir and library.journal)
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("library.port", 8080);
+        Library service = Library.open();
+        LibraryServer server = new LibraryServer(service, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(2);
+            service.close();
+        }, "library-server-shutdown"));
+        server.start();
+        System.out.println("Library server listening on port " + server.getPort());
+    }
+}
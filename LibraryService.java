@@ -1,138 +1,985 @@
+import java.time.Duration;
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
+import java.time.LocalDateTime;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
 
 
-public class LibraryService {
-    private List<Book> books = new ArrayList<>();
-    private List<Member> members = new ArrayList<>();
-    private List<Loan> loans = new ArrayList<>();
+// Final because the constructor replays the journal through the same methods that serve calls,
+// and starts the background threads: a subclass would run them half built.
+public final class LibraryService implements Library {
+    // Append-only, so getAllBooks and getAllMembers can hand out immutable snapshots in O(1).
+    private final AppendOnlyList<Book> books = new AppendOnlyList<>();
+    private final AppendOnlyList<Member> members = new AppendOnlyList<>();
+    // Outstanding loans. Returned ones move to the archive, which is only read when asked for.
+    private final ActiveLoans activeLoans = new ActiveLoans();
+    private final LoanArchive archive;
+    private final OverdueTracker overdue = new OverdueTracker(FINE_PER_DAY);
+
+    // Lookup indexes keyed by key(ISBN) / key(member ID), kept in sync with the lists.
+    private final Map<String, Book> booksByIsbn = new ConcurrentHashMap<>();
+    private final Map<String, Member> membersById = new ConcurrentHashMap<>();
+    private final SearchIndex titleIndex = new SearchIndex();
+    private final SearchIndex authorIndex = new SearchIndex();
+    // Results of recent searches; see SearchCache for how adds invalidate it.
+    private final SearchCache searchCache = new SearchCache(SEARCH_CACHE_ENTRIES, SEARCH_CACHE_WEIGHT);
 
     
     private static final double FINE_PER_DAY = 2.0; 
 
+    private static final Metrics.Timer ADD_BOOK = Metrics.timer("service.addBook");
+    private static final Metrics.Timer ADD_BOOKS = Metrics.timer("service.addBooks");
+    private static final Metrics.Timer ADD_MEMBER = Metrics.timer("service.addMember");
+    private static final Metrics.Timer ADD_MEMBERS = Metrics.timer("service.addMembers");
+    private static final Metrics.Timer SEARCH_TITLE = Metrics.timer("service.searchBooksByTitle");
+    private static final Metrics.Timer SEARCH_AUTHOR = Metrics.timer("service.searchBooksByAuthor");
+    private static final Metrics.Timer SEARCH_KEYWORDS = Metrics.timer("service.searchBooksByKeywords");
+    private static final Metrics.Timer IS_AVAILABLE = Metrics.timer("service.isBookAvailable");
+    private static final Metrics.Timer ISSUE = Metrics.timer("service.issueBook");
+    private static final Metrics.Timer RETURN = Metrics.timer("service.returnBook");
+    private static final Metrics.Timer ISSUE_BATCH = Metrics.timer("service.issueBooks");
+    private static final Metrics.Timer RETURN_BATCH = Metrics.timer("service.returnBooks");
+    private static final Metrics.Timer ALL_LOANS = Metrics.timer("service.getAllLoans");
+    private static final Metrics.Timer SCAN_LOANS = Metrics.timer("service.scanLoans");
+    private static final Metrics.Timer COMPACT = Metrics.timer("service.compact");
+    // Lookups by ISBN / member ID that found something.
+    private static final Metrics.HitRate BOOK_LOOKUPS = Metrics.hitRate("index.bookByIsbn");
+    private static final Metrics.HitRate MEMBER_LOOKUPS = Metrics.hitRate("index.memberById");
+    // Title and author searches answered by the token index rather than a full scan.
+
+    private static final long COMPACTION_INTERVAL_SECONDS = Long.getLong("library.compactionSeconds", 300);
+    private static final long GROUP_COMMIT_MILLIS = Long.getLong("library.groupCommitMillis", 2);
+    private static final int GROUP_COMMIT_BATCH = Integer.getInteger("library.groupCommitBatch", 512);
+    // Journal mode only: compact into library.snap instead of the text files.
+    private static final boolean BINARY_SNAPSHOTS = Boolean.getBoolean("library.binarySnapshot");
+    // Search result cache bounds: cached queries, and books held across all results. 0 disables it.
+    private static final int SEARCH_CACHE_ENTRIES = Integer.getInteger("library.searchCacheEntries", 10_000);
+    private static final long SEARCH_CACHE_WEIGHT = Long.getLong("library.searchCacheWeight", 1_000_000);
+
+    private final FileStorage storage;
+    // Non-null in journal mode: mutations append one record instead of rewriting a whole file.
+    private final Journal journal;
+    // Mutations share the read side; compaction takes the write side to capture a consistent state.
+    private final ReentrantReadWriteLock compactionLock = new ReentrantReadWriteLock();
+    // Runs the overdue sweep just after midnight every day and, in journal mode, compaction.
+    // The shards of a ShardedLibraryService share one, which the router shuts down.
+    private final ScheduledExecutorService background;
+    private final boolean ownsBackground;
+    private final List<ScheduledFuture<?>> scheduled = new ArrayList<>();
+    // On every shard of a ShardedLibraryService but the first: members are kept in the first
+    // shard only, and looked up there.
+    private final LibraryService memberHome;
+    private final Object compactionMutex = new Object();
+
+    // Checkouts of different titles (and members) proceed in parallel; the same ISBN is serialized.
+    // Lock order: compactionLock read side, then ISBN stripe, then member stripe.
+    private final StripedLocks isbnLocks = new StripedLocks(64);
+    private final StripedLocks memberLocks = new StripedLocks(64);
+    // Guards the books list and the search indexes, which change only when a new ISBN is added.
+    private final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();
+
+    // All file writes happen on this thread, in the order they were queued, and are group-committed.
+    private final StorageWriter writer;
+
+    // Most loans a member may have out at once (library.maxLoansPerMember); 0 means no limit.
+    private volatile int maxLoansPerMember = Math.max(0, Integer.getInteger("library.maxLoansPerMember", 0));
+
     public LibraryService() {
-        
-        books = FileStorage.loadBooks();
-        members = FileStorage.loadMembers();
-        loans = FileStorage.loadLoans();
+        this(Boolean.getBoolean("library.journal"));
+    }
+
+    public LibraryService(boolean journaled) {
+        this(new FileStorage(), journaled);
+    }
+
+    public LibraryService(FileStorage storage, boolean journaled) {
+        this(storage, journaled, null, null);
+    }
+
+    LibraryService(FileStorage storage, boolean journaled, LibraryService memberHome, ScheduledExecutorService background) {
+        this.storage = storage;
+        this.memberHome = memberHome;
+        this.ownsBackground = background == null;
+        this.background = background == null ? newBackgroundExecutor() : background;
+        Metrics.registerMBean();
+        storage.recover();
+        // When library.snap exists it holds the current state; the text files may be stale.
+        File snapFile = storage.file(BinarySnapshot.FILE);
+        BinarySnapshot snap = null;
+        if (snapFile.exists()) {
+            try {
+                snap = BinarySnapshot.read(snapFile);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Error reading snapshot, falling back to text files: " + snapFile + " -> " + e.getMessage());
+            }
+        }
+        long booksCheckpoint;
+        long membersCheckpoint;
+        long loansCheckpoint;
+        LoanStore loans;
+        long archiveLength;
+        if (snap != null) {
+            books.addAll(snap.books);
+            if (memberHome == null) members.addAll(snap.members);
+            loans = snap.loans;
+            archiveLength = snap.archiveLength;
+            booksCheckpoint = membersCheckpoint = loansCheckpoint = snap.checkpoint;
+        } else {
+            books.addAll(storage.loadBooks());
+            // Sharded directories from before the members moved to the first shard still hold
+            // a copy here; it is dropped the next time this shard writes its members.
+            if (memberHome == null) members.addAll(storage.loadMembers());
+            loans = storage.loadLoans();
+            archiveLength = storage.readArchiveLength();
+            booksCheckpoint = storage.readCheckpoint(FileStorage.BOOKS_FILE);
+            membersCheckpoint = storage.readCheckpoint(FileStorage.MEMBERS_FILE);
+            loansCheckpoint = storage.readCheckpoint(FileStorage.LOANS_FILE);
+        }
+        archive = new LoanArchive(storage.file(FileStorage.HISTORY_FILE), archiveLength);
+        // Files from before loan_history.txt still hold returned loans; the next save archives them.
+        for (int row = 0; row < loans.size(); row++) {
+            Loan l = loans.get(row);
+            if (l.isReturned()) {
+                archive.add(l);
+            } else {
+                activeLoans.add(l);
+                overdue.add(l);
+            }
+        }
+        rebuildIndexes();
+
+        long lastSeq = replayJournal(booksCheckpoint, membersCheckpoint, loansCheckpoint);
+        if (journaled) {
+            journal = new Journal(storage.getDirectory(), lastSeq);
+            writer = new StorageWriter(GROUP_COMMIT_MILLIS, GROUP_COMMIT_BATCH, journal::sync);
+            if (Journal.exists(storage.getDirectory()) || (snap != null) != BINARY_SNAPSHOTS || archive.pendingCount() > 0) {
+                compact();
+            }
+            scheduled.add(this.background.scheduleWithFixedDelay(this::compact, COMPACTION_INTERVAL_SECONDS, COMPACTION_INTERVAL_SECONDS, TimeUnit.SECONDS));
+        } else {
+            journal = null;
+            writer = new StorageWriter(GROUP_COMMIT_MILLIS, GROUP_COMMIT_BATCH, null);
+            if (Journal.exists(storage.getDirectory()) || snapFile.exists()) {
+                // Switched back from journal mode: fold what is left into the text files.
+                boolean ok = storage.saveBooks(books) && storage.saveMembers(members) && saveLoans();
+                if (ok) {
+                    new Journal(storage.getDirectory(), lastSeq).deleteAll();
+                    snapFile.delete();
+                }
+            } else if (archive.pendingCount() > 0) {
+                saveLoans();
+            }
+        }
+
+        overdue.sweep(LocalDate.now());
+        long untilMidnight = Duration.between(LocalDateTime.now(), LocalDate.now().plusDays(1).atStartOfDay()).toMillis();
+        scheduled.add(this.background.scheduleAtFixedRate(() -> overdue.sweep(LocalDate.now()), untilMidnight, TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS));
+    }
+
+    static ScheduledExecutorService newBackgroundExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "library-background");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private long replayJournal(long booksCheckpoint, long membersCheckpoint, long loansCheckpoint) {
+        long lastSeq = Math.max(booksCheckpoint, Math.max(membersCheckpoint, loansCheckpoint));
+
+        for (Journal.Entry e : Journal.readAll(storage.getDirectory())) {
+            lastSeq = Math.max(lastSeq, e.seq);
+            switch (e.type) {
+                case Journal.ADD_BOOK:
+                    Book b = Book.fromFileString(e.payload);
+                    if (b != null && e.seq > booksCheckpoint) applyAddBook(b);
+                    break;
+                case Journal.ADD_MEMBER:
+                    Member m = Member.fromFileString(e.payload);
+                    if (m != null && e.seq > membersCheckpoint) applyAddMember(m);
+                    break;
+                case Journal.ISSUE:
+                    Loan issued = Loan.fromFileString(e.payload);
+                    if (issued != null && e.seq > loansCheckpoint) applyIssue(issued);
+                    break;
+                case Journal.RETURN:
+                    Loan returned = Loan.fromFileString(e.payload);
+                    if (returned != null && e.seq > loansCheckpoint) applyReturn(returned.getIsbn(), returned.getMemberId());
+                    break;
+                default:
+                    System.out.println("Skipping unknown journal record: " + e.type);
+            }
+        }
+        return lastSeq;
+    }
+
+    // Folds the journal into fresh books/members/loans files, or into library.snap
+    // when binary snapshots are enabled.
+    public void compact() {
+        if (journal == null) return;
+        long start = System.nanoTime();
+        try {
+            synchronized (compactionMutex) {
+                List<String> bookLines = null;
+                List<String> memberLines = null;
+                List<Loan> loans = null;
+                BinarySnapshot snap = null;
+                int archived;
+                Future<Long> rotation;
+                compactionLock.writeLock().lock();
+                try {
+                    if (BINARY_SNAPSHOTS) {
+                        snap = BinarySnapshot.capture(books, members, activeLoans.list());
+                    } else {
+                        bookLines = FileStorage.toBookLines(books);
+                        memberLines = FileStorage.toMemberLines(members);
+                        loans = activeLoans.list();
+                    }
+                    archived = archive.pendingCount();
+                    // Queued behind every record for the state captured above, and ahead of any later one.
+                    rotation = writer.submit(() -> {
+                        long seq = journal.getLastSeq();
+                        journal.rotate();
+                        return seq;
+                    });
+                } finally {
+                    compactionLock.writeLock().unlock();
+                }
+                long checkpoint;
+                try {
+                    checkpoint = rotation.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    System.out.println("Error rotating journal -> " + e.getCause());
+                    return;
+                }
+                long archiveLength;
+                try {
+                    archiveLength = archive.flush(archived);
+                } catch (IOException e) {
+                    System.out.println("Error writing loan history -> " + e.getMessage());
+                    return;
+                }
+                boolean ok;
+                File snapFile = storage.file(BinarySnapshot.FILE);
+                if (snap != null) {
+                    try {
+                        snap.write(snapFile, checkpoint, archiveLength);
+                        ok = true;
+                    } catch (IOException e) {
+                        System.out.println("Error writing snapshot: " + snapFile + " -> " + e.getMessage());
+                        ok = false;
+                    }
+                } else {
+                    ok = storage.saveSnapshot(FileStorage.BOOKS_FILE, bookLines, checkpoint)
+                            && storage.saveSnapshot(FileStorage.MEMBERS_FILE, memberLines, checkpoint)
+                            && storage.saveSnapshot(FileStorage.LOANS_FILE, FileStorage.toLoanLines(loans, archiveLength), checkpoint);
+                    if (ok) snapFile.delete();
+                }
+                if (ok) {
+                    archive.commit(archived, archiveLength);
+                    journal.deleteRotated();
+                }
+            }
+        } finally {
+            COMPACT.record(start);
+        }
+    }
+
+    // Writes out everything still queued. Call once before exiting.
+    public void close() {
+        for (ScheduledFuture<?> f : scheduled) f.cancel(false);
+        if (ownsBackground) background.shutdown();
+        if (journal != null) compact();
+        writer.close();
+        if (journal != null) journal.close();
+    }
+
+    // Each caller waits for the batch holding its write, after releasing its locks,
+    // so callers on other keys keep joining the same batch.
+    //
+    // A failed write or fsync is thrown to the caller as an UncheckedIOException instead of
+    // reporting success. The change stays applied in memory (other callers may already have
+    // seen it, so it isn't undone): the next successful save, or compaction in journal mode,
+    // writes it out, and until then it is lost if the process dies.
+    private static void awaitDurable(CompletableFuture<Void> saved) {
+        try {
+            saved.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            System.out.println("Error saving changes -> " + cause.getMessage());
+            throw new UncheckedIOException("change applied but not saved: " + cause.getMessage(),
+                    cause instanceof IOException ? (IOException) cause : new IOException(cause));
+        }
+    }
+
+    private CompletableFuture<Void> saveBooksLater() {
+        return writer.submit(FileStorage.BOOKS_FILE, () -> {
+            if (!storage.saveBooks(books.snapshot())) throw new IOException("could not write " + FileStorage.BOOKS_FILE);
+        });
+    }
+
+    private CompletableFuture<Void> saveMembersLater() {
+        return writer.submit(FileStorage.MEMBERS_FILE, () -> {
+            if (!storage.saveMembers(members.snapshot())) throw new IOException("could not write " + FileStorage.MEMBERS_FILE);
+        });
+    }
+
+    private CompletableFuture<Void> saveLoansLater() {
+        return writer.submit(FileStorage.LOANS_FILE, () -> {
+            if (!saveLoans()) throw new IOException("could not write " + FileStorage.LOANS_FILE);
+        });
+    }
+
+    // Appends newly returned loans to the history, then rewrites loans.txt with the new
+    // history length; loans.txt is what commits them.
+    private boolean saveLoans() {
+        List<Loan> copy;
+        int archived;
+        synchronized (activeLoans) {
+            copy = activeLoans.list();
+            archived = archive.pendingCount();
+        }
+        long archiveLength;
+        try {
+            archiveLength = archive.flush(archived);
+        } catch (IOException e) {
+            System.out.println("Error writing loan history -> " + e.getMessage());
+            return false;
+        }
+        if (!storage.saveLoans(copy, archiveLength)) return false;
+        archive.commit(archived, archiveLength);
+        return true;
+    }
+
+    private CompletableFuture<Void> appendLater(String type, String payload) {
+        return writer.submit(null, () -> journal.append(type, payload));
+    }
+
+    private CompletableFuture<Void> appendAllLater(String type, List<String> payloads) {
+        return writer.submit(null, () -> {
+            for (String payload : payloads) journal.append(type, payload);
+        });
+    }
+
+    private void rebuildIndexes() {
+        booksByIsbn.clear();
+        titleIndex.clear();
+        authorIndex.clear();
+        for (int i = 0; i < books.size(); i++) {
+            Book b = books.get(i);
+            booksByIsbn.putIfAbsent(key(b.getIsbn()), b);
+            titleIndex.add(i, b.getTitle());
+            authorIndex.add(i, b.getAuthor());
+        }
+        membersById.clear();
+        for (Member m : members) {
+            membersById.putIfAbsent(key(m.getMemberId()), m);
+        }
+    }
+
+    // Lookup key for ISBNs and member IDs. Two IDs get the same key exactly when
+    // equalsIgnoreCase says they match: each code point is upper- then lower-cased, as that
+    // comparison does. String.toLowerCase alone differs for a few letters (dotless i, long s,
+    // dotted capital I, final sigma), which the old linear scan treated as matches.
+    static String key(String id) {
+        if (id == null) return null;
+        for (int i = 0; i < id.length(); ) {
+            int c = id.codePointAt(i);
+            if (fold(c) != c) {
+                StringBuilder sb = new StringBuilder(id.length()).append(id, 0, i);
+                for (int j = i; j < id.length(); j += Character.charCount(c)) {
+                    c = id.codePointAt(j);
+                    sb.appendCodePoint(fold(c));
+                }
+                return sb.toString();
+            }
+            i += Character.charCount(c);
+        }
+        return id;
+    }
+
+    private static int fold(int c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
     }
 
    
     public void addBook(Book book) {
+        long start = System.nanoTime();
+        try {
+            Lock isbnLock = isbnLocks.lockFor(key(book.getIsbn()));
+            CompletableFuture<Void> saved;
+            compactionLock.readLock().lock();
+            isbnLock.lock();
+            try {
+                applyAddBook(book);
+                saved = journal != null ? appendLater(Journal.ADD_BOOK, book.toFileString()) : saveBooksLater();
+            } finally {
+                isbnLock.unlock();
+                compactionLock.readLock().unlock();
+            }
+            awaitDurable(saved);
+        } finally {
+            ADD_BOOK.record(start);
+        }
+    }
+
+    private void applyAddBook(Book book) {
+        applyAddBook(book, true);
+    }
+
+    // Without invalidate the caller must clear the search cache itself once it is done.
+    private void applyAddBook(Book book, boolean invalidate) {
         
         Book existing = findBookByIsbn(book.getIsbn());
         if (existing != null) {
             existing.setQuantity(existing.getQuantity() + book.getQuantity());
         } else {
-            books.add(book);
+            catalogLock.writeLock().lock();
+            try {
+                int id = books.size();
+                books.add(book);
+                booksByIsbn.put(key(book.getIsbn()), book);
+                titleIndex.add(id, book.getTitle());
+                authorIndex.add(id, book.getAuthor());
+                if (invalidate) searchCache.invalidate(book);
+            } finally {
+                catalogLock.writeLock().unlock();
+            }
         }
-        FileStorage.saveBooks(books);
     }
 
     public Book findBookByIsbn(String isbn) {
-        for (Book b : books) {
-            if (b.getIsbn().equalsIgnoreCase(isbn)) return b;
-        }
-        return null;
+        // null finds nothing, as it did with the linear scan (the map would throw).
+        Book b = isbn == null ? null : booksByIsbn.get(key(isbn));
+        BOOK_LOOKUPS.record(b != null);
+        return b;
     }
 
+    // Titles where every word of the query starts a word (e.g. "jav bas" finds "Java Basics"),
+    // and titles containing the query anywhere, as all title searches did before the index
+    // (e.g. "script" finds "JavaScript Guide"). Catalogue order.
     public List<Book> searchBooksByTitle(String titlePart) {
-        List<Book> result = new ArrayList<>();
-        for (Book b : books) {
-            if (b.getTitle().toLowerCase().contains(titlePart.toLowerCase())) {
-                result.add(b);
+        long start = System.nanoTime();
+        try {
+            catalogLock.readLock().lock();
+            try {
+                List<Book> cached = searchCache.get(SearchCache.Kind.TITLE, titlePart);
+                if (cached != null) return cached;
+                List<Book> result = toBooks(titleIndex.searchText(titlePart, id -> books.get(id).getTitle(), books.size()));
+                return searchCache.put(SearchCache.Kind.TITLE, titlePart, result);
+            } finally {
+                catalogLock.readLock().unlock();
             }
+        } finally {
+            SEARCH_TITLE.record(start);
         }
-        return result;
     }
 
+    // Same rules as searchBooksByTitle.
     public List<Book> searchBooksByAuthor(String authorPart) {
-        List<Book> result = new ArrayList<>();
-        for (Book b : books) {
-            if (b.getAuthor().toLowerCase().contains(authorPart.toLowerCase())) {
-                result.add(b);
+        long start = System.nanoTime();
+        try {
+            catalogLock.readLock().lock();
+            try {
+                List<Book> cached = searchCache.get(SearchCache.Kind.AUTHOR, authorPart);
+                if (cached != null) return cached;
+                List<Book> result = toBooks(authorIndex.searchText(authorPart, id -> books.get(id).getAuthor(), books.size()));
+                return searchCache.put(SearchCache.Kind.AUTHOR, authorPart, result);
+            } finally {
+                catalogLock.readLock().unlock();
+            }
+        } finally {
+            SEARCH_AUTHOR.record(start);
+        }
+    }
+
+    // Matches any query word against title or author, books matching more words first.
+    public List<Book> searchBooksByKeywords(String query) {
+        long start = System.nanoTime();
+        try {
+            catalogLock.readLock().lock();
+            try {
+                List<Book> cached = searchCache.get(SearchCache.Kind.KEYWORDS, query);
+                if (cached != null) return cached;
+                List<Book> result = toBooks(SearchIndex.search(query, false, titleIndex, authorIndex));
+                return searchCache.put(SearchCache.Kind.KEYWORDS, query, result);
+            } finally {
+                catalogLock.readLock().unlock();
             }
+        } finally {
+            SEARCH_KEYWORDS.record(start);
         }
+    }
+
+    private List<Book> toBooks(int[] ids) {
+        List<Book> result = new ArrayList<>(ids.length);
+        for (int id : ids) result.add(books.get(id));
         return result;
     }
 
+    // Point-in-time view: books added later don't appear in it, and reading it takes no lock.
+    // Quantities are read live from the shared Book objects.
     public List<Book> getAllBooks() {
-        return books;
+        return books.snapshot();
     }
 
    
     public void addMember(Member member) {
-        
-        if (findMemberById(member.getMemberId()) == null) {
-            members.add(member);
-            FileStorage.saveMembers(members);
+        long start = System.nanoTime();
+        try {
+            Lock memberLock = memberLocks.lockFor(key(member.getMemberId()));
+            CompletableFuture<Void> saved;
+            compactionLock.readLock().lock();
+            memberLock.lock();
+            try {
+                if (!applyAddMember(member)) return;
+                saved = journal != null ? appendLater(Journal.ADD_MEMBER, member.toFileString()) : saveMembersLater();
+            } finally {
+                memberLock.unlock();
+                compactionLock.readLock().unlock();
+            }
+            awaitDurable(saved);
+        } finally {
+            ADD_MEMBER.record(start);
         }
     }
 
-    public Member findMemberById(String id) {
-        for (Member m : members) {
-            if (m.getMemberId().equalsIgnoreCase(id)) return m;
+    // Bulk form of addBook: each book is merged the same way, but everything is written once
+    // (a single batch of journal records in journal mode).
+    public void addBooks(Collection<Book> newBooks) {
+        long start = System.nanoTime();
+        try {
+            List<String> records = journal != null ? new ArrayList<>(newBooks.size()) : null;
+            CompletableFuture<Void> saved;
+            compactionLock.readLock().lock();
+            try {
+                for (Book book : newBooks) {
+                    Lock isbnLock = isbnLocks.lockFor(key(book.getIsbn()));
+                    isbnLock.lock();
+                    try {
+                        applyAddBook(book, false);
+                        if (records != null) records.add(book.toFileString());
+                    } finally {
+                        isbnLock.unlock();
+                    }
+                }
+                // One clear instead of checking every cached query against every new book.
+                catalogLock.writeLock().lock();
+                try {
+                    searchCache.clear();
+                } finally {
+                    catalogLock.writeLock().unlock();
+                }
+                saved = journal != null ? appendAllLater(Journal.ADD_BOOK, records) : saveBooksLater();
+            } finally {
+                compactionLock.readLock().unlock();
+            }
+            awaitDurable(saved);
+        } finally {
+            ADD_BOOKS.record(start);
+        }
+    }
+
+    // Bulk form of addMember; returns how many members were new.
+    public int addMembers(Collection<Member> newMembers) {
+        long start = System.nanoTime();
+        try {
+            List<String> records = journal != null ? new ArrayList<>(newMembers.size()) : null;
+            int added = 0;
+            CompletableFuture<Void> saved;
+            compactionLock.readLock().lock();
+            try {
+                for (Member member : newMembers) {
+                    Lock memberLock = memberLocks.lockFor(key(member.getMemberId()));
+                    memberLock.lock();
+                    try {
+                        if (!applyAddMember(member)) continue;
+                        added++;
+                        if (records != null) records.add(member.toFileString());
+                    } finally {
+                        memberLock.unlock();
+                    }
+                }
+                if (added == 0) return 0;
+                saved = journal != null ? appendAllLater(Journal.ADD_MEMBER, records) : saveMembersLater();
+            } finally {
+                compactionLock.readLock().unlock();
+            }
+            awaitDurable(saved);
+            return added;
+        } finally {
+            ADD_MEMBERS.record(start);
         }
-        return null;
     }
 
+    private boolean applyAddMember(Member member) {
+        
+        if (findMemberById(member.getMemberId()) != null) return false;
+        members.add(member);
+        membersById.put(key(member.getMemberId()), member);
+        return true;
+    }
+
+    public Member findMemberById(String id) {
+        if (memberHome != null) return memberHome.findMemberById(id);
+        Member m = id == null ? null : membersById.get(key(id));
+        MEMBER_LOOKUPS.record(m != null);
+        return m;
+    }
+
+    // Point-in-time view, like getAllBooks.
     public List<Member> getAllMembers() {
-        return members;
+        return members.snapshot();
     }
 
     
     public boolean isBookAvailable(String isbn) {
+        long start = System.nanoTime();
+        try {
+            return available(isbn);
+        } finally {
+            IS_AVAILABLE.record(start);
+        }
+    }
+
+    private boolean available(String isbn) {
+        return availableCopies(isbn) > 0;
+    }
+
+    // Copies not out on loan, or 0 for an unknown ISBN.
+    int availableCopies(String isbn) {
         Book book = findBookByIsbn(isbn);
-        if (book == null) return false;
+        if (book == null) return 0;
 
-        
-        int borrowedCount = 0;
-        for (Loan l : loans) {
-            if (!l.isReturned() && l.getIsbn().equalsIgnoreCase(isbn)) {
-                borrowedCount++;
+        int borrowedCount = activeLoans.count(isbn);
+        return book.getQuantity() - borrowedCount;
+    }
+
+    public boolean issueBook(String isbn, String memberId, int days) {
+        long start = System.nanoTime();
+        try {
+            Book book = findBookByIsbn(isbn);
+            Member member = findMemberById(memberId);
+            if (book == null || member == null) return false;
+
+            Lock isbnLock = isbnLocks.lockFor(key(isbn));
+            Lock memberLock = memberLocks.lockFor(key(memberId));
+            CompletableFuture<Void> saved;
+            compactionLock.readLock().lock();
+            isbnLock.lock();
+            memberLock.lock();
+            try {
+                // Checked under the ISBN stripe so two callers can't both take the last copy,
+                // and under the member stripe so a member can't go over the limit the same way.
+                if (!available(isbn) || atLoanLimit(memberId, 0)) return false;
+
+                LocalDate issueDate = LocalDate.now();
+                LocalDate dueDate = issueDate.plusDays(days);
+                Loan loan = new Loan(isbn, memberId, issueDate, dueDate, false);
+                applyIssue(loan);
+                saved = journal != null ? appendLater(Journal.ISSUE, loan.toFileString()) : saveLoansLater();
+            } finally {
+                memberLock.unlock();
+                isbnLock.unlock();
+                compactionLock.readLock().unlock();
             }
+            awaitDurable(saved);
+            return true;
+        } finally {
+            ISSUE.record(start);
         }
-        int available = book.getQuantity() - borrowedCount;
-        return available > 0;
     }
 
-    public boolean issueBook(String isbn, String memberId, int days) {
-        Book book = findBookByIsbn(isbn);
-        Member member = findMemberById(memberId);
-        if (book == null || member == null) return false;
-        if (!isBookAvailable(isbn)) return false;
-
-        LocalDate issueDate = LocalDate.now();
-        LocalDate dueDate = issueDate.plusDays(days);
-        Loan loan = new Loan(isbn, memberId, issueDate, dueDate, false);
-        loans.add(loan);
-        FileStorage.saveLoans(loans);
-        return true;
+    // Whether the member may not take another loan, counting pending ones not yet applied.
+    // Call with the member's stripe held.
+    private boolean atLoanLimit(String memberId, int pending) {
+        int max = maxLoansPerMember;
+        return max > 0 && activeLoans.countForMember(memberId) + pending >= max;
+    }
+
+    // 0 means no limit. Loans already out above a new limit stay out; only new issues are refused.
+    public void setMaxLoansPerMember(int max) {
+        maxLoansPerMember = Math.max(0, max);
+    }
+
+    public int getMaxLoansPerMember() {
+        return maxLoansPerMember;
+    }
+
+    private void applyIssue(Loan loan) {
+        activeLoans.add(loan);
+        overdue.add(loan);
     }
 
     public double returnBook(String isbn, String memberId) {
+        long start = System.nanoTime();
+        try {
+            Loan l;
+            Lock isbnLock = isbnLocks.lockFor(key(isbn));
+            Lock memberLock = memberLocks.lockFor(key(memberId));
+            CompletableFuture<Void> saved;
+            compactionLock.readLock().lock();
+            isbnLock.lock();
+            memberLock.lock();
+            try {
+                l = applyReturn(isbn, memberId);
+                if (l == null) return -1;
+                saved = journal != null ? appendLater(Journal.RETURN, l.toFileString()) : saveLoansLater();
+            } finally {
+                memberLock.unlock();
+                isbnLock.unlock();
+                compactionLock.readLock().unlock();
+            }
+            awaitDurable(saved);
+            return overdue.fine(l, LocalDate.now());
+        } finally {
+            RETURN.record(start);
+        }
+    }
+
+    private Loan applyReturn(String isbn, String memberId) {
        
-        for (Loan l : loans) {
-            if (!l.isReturned() && l.getIsbn().equalsIgnoreCase(isbn) && l.getMemberId().equalsIgnoreCase(memberId)) {
-                l.setReturned(true);
-                FileStorage.saveLoans(loans);
-                
+        // Moved under the same lock a save copies under, so no save sees the loan in neither place.
+        synchronized (activeLoans) {
+            Loan l = activeLoans.remove(isbn, memberId);
+            if (l == null) return null;
+            overdue.remove(l);
+            Loan returned = new Loan(l.getIsbn(), l.getMemberId(), l.getIssueDate(), l.getDueDate(), true);
+            archive.add(returned);
+            return returned;
+        }
+    }
+
+    // Issues several books in one go: the locks for every item are taken once and the new
+    // loans are written once. With allOrNothing, nothing is issued unless every item can be.
+    public LoanBatch issueBooks(List<LoanBatch.Item> items, boolean allOrNothing) {
+        long start = System.nanoTime();
+        try {
+            LoanBatch batch = new LoanBatch(items);
+            List<ReentrantLock> locks = lockBatch(items);
+            CompletableFuture<Void> saved = null;
+            try {
+                // Copies already promised to earlier items of this batch, by ISBN, and loans by member.
+                Map<String, Integer> taken = new HashMap<>();
+                Map<String, Integer> borrowed = new HashMap<>();
+                for (int i = 0; i < items.size(); i++) {
+                    LoanBatch.Item item = items.get(i);
+                    Book book = findBookByIsbn(item.isbn);
+                    if (book == null) {
+                        batch.fail(i, "unknown ISBN");
+                    } else if (findMemberById(item.memberId) == null) {
+                        batch.fail(i, "unknown member");
+                    } else {
+                        int promised = taken.getOrDefault(key(item.isbn), 0);
+                        int pending = borrowed.getOrDefault(key(item.memberId), 0);
+                        if (book.getQuantity() - activeLoans.count(item.isbn) - promised <= 0) {
+                            batch.fail(i, "not available");
+                        } else if (atLoanLimit(item.memberId, pending)) {
+                            batch.fail(i, "loan limit reached");
+                        } else {
+                            taken.put(key(item.isbn), promised + 1);
+                            borrowed.put(key(item.memberId), pending + 1);
+                        }
+                    }
+                }
+                if (allOrNothing && !batch.allSucceeded()) {
+                    batch.rollBack();
+                    return batch;
+                }
+
+                LocalDate issueDate = LocalDate.now();
+                List<String> records = new ArrayList<>();
+                for (int i = 0; i < items.size(); i++) {
+                    if (!batch.succeeded(i)) continue;
+                    LoanBatch.Item item = items.get(i);
+                    Loan loan = new Loan(item.isbn, item.memberId, issueDate, issueDate.plusDays(item.days), false);
+                    applyIssue(loan);
+                    records.add(loan.toFileString());
+                }
+                if (!records.isEmpty()) {
+                    saved = journal != null ? appendAllLater(Journal.ISSUE, records) : saveLoansLater();
+                }
+            } finally {
+                unlockBatch(locks);
+            }
+            if (saved != null) awaitDurable(saved);
+            return batch;
+        } finally {
+            ISSUE_BATCH.record(start);
+        }
+    }
+
+    // Returns several books in one go and adds up their fines; see issueBooks.
+    public LoanBatch returnBooks(List<LoanBatch.Item> items, boolean allOrNothing) {
+        long start = System.nanoTime();
+        try {
+            LoanBatch batch = new LoanBatch(items);
+            List<ReentrantLock> locks = lockBatch(items);
+            CompletableFuture<Void> saved = null;
+            try {
+                if (allOrNothing) {
+                    // The same pair may appear more than once, returning one loan each time.
+                    Map<String, Integer> wanted = new HashMap<>();
+                    for (int i = 0; i < items.size(); i++) {
+                        LoanBatch.Item item = items.get(i);
+                        int n = wanted.merge(key(item.isbn) + '\0' + key(item.memberId), 1, Integer::sum);
+                        if (activeLoans.count(item.isbn, item.memberId) < n) batch.fail(i, "no active loan");
+                    }
+                    if (!batch.allSucceeded()) {
+                        batch.rollBack();
+                        return batch;
+                    }
+                }
+
                 LocalDate today = LocalDate.now();
-                if (today.isAfter(l.getDueDate())) {
-                    long lateDays = ChronoUnit.DAYS.between(l.getDueDate(), today);
-                    return lateDays * FINE_PER_DAY;
-                } else {
-                    return 0.0;
+                List<String> records = new ArrayList<>();
+                for (int i = 0; i < items.size(); i++) {
+                    LoanBatch.Item item = items.get(i);
+                    Loan l = applyReturn(item.isbn, item.memberId);
+                    if (l == null) {
+                        batch.fail(i, "no active loan");
+                        continue;
+                    }
+                    batch.setFine(i, overdue.fine(l, today));
+                    records.add(l.toFileString());
                 }
+                if (!records.isEmpty()) {
+                    saved = journal != null ? appendAllLater(Journal.RETURN, records) : saveLoansLater();
+                }
+            } finally {
+                unlockBatch(locks);
             }
+            if (saved != null) awaitDurable(saved);
+            return batch;
+        } finally {
+            RETURN_BATCH.record(start);
         }
-        return -1; 
     }
 
-    public List<Loan> getAllLoans() { return loans; }
-}
+    // Same lock order as a single issue or return: compaction read side, ISBN stripes, member stripes.
+    private List<ReentrantLock> lockBatch(List<LoanBatch.Item> items) {
+        List<String> isbns = new ArrayList<>(items.size());
+        List<String> memberIds = new ArrayList<>(items.size());
+        for (LoanBatch.Item item : items) {
+            isbns.add(key(item.isbn));
+            memberIds.add(key(item.memberId));
+        }
+        List<ReentrantLock> locks = new ArrayList<>(isbnLocks.locksFor(isbns));
+        locks.addAll(memberLocks.locksFor(memberIds));
+        compactionLock.readLock().lock();
+        for (ReentrantLock lock : locks) lock.lock();
+        return locks;
+    }
+
+    private void unlockBatch(List<ReentrantLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) locks.get(i).unlock();
+        compactionLock.readLock().unlock();
+    }
+
+    // Loan history followed by the loans still out, as of one moment: taken under the lock a
+    // return holds while it moves a loan, so no loan shows up twice or not at all. The view
+    // is immutable and reading it locks nothing. The first call reads loan_history.txt.
+    public List<Loan> getAllLoans() {
+        long start = System.nanoTime();
+        try {
+            LoanStore history = archive.load();
+            List<Loan> historyView;
+            List<Loan> active;
+            synchronized (activeLoans) {
+                historyView = history.snapshot();
+                active = activeLoans.list();
+            }
+            int n = historyView.size();
+            return new AbstractList<Loan>() {
+                @Override
+                public Loan get(int index) {
+                    return index < n ? historyView.get(index) : active.get(index - n);
+                }
+
+                @Override
+                public int size() {
+                    return n + active.size();
+                }
+            };
+        } finally {
+            ALL_LOANS.record(start);
+        }
+    }
+
+    // Folds every loan, history then the loans still out, without loading the history; see
+    // LoanArchive.Scan. Taken at one moment like getAllLoans.
+    public <A> A scanLoans(Supplier<A> newPart, BiConsumer<A, Loan> accept, BinaryOperator<A> merge) {
+        long start = System.nanoTime();
+        try {
+            LoanArchive.Scan history;
+            List<Loan> active;
+            synchronized (activeLoans) {
+                history = archive.scan();
+                active = activeLoans.list();
+            }
+            return merge.apply(history.fold(newPart, accept, merge), LoanArchive.Scan.fold(active, newPart, accept, merge));
+        } finally {
+            SCAN_LOANS.record(start);
+        }
+    }
+
+    // Loans overdue today, longest overdue first.
+    public List<Loan> getOverdueLoans() { return overdue.overdue(LocalDate.now()); }
+
+    // Fine the loan would pay if returned today.
+    public double getFineDue(Loan loan) { return overdue.fine(loan, LocalDate.now()); }
+
+    public double getOutstandingFines(String memberId) { return overdue.outstandingFines(memberId, LocalDate.now()); }
+
+    // Result of the most recent daily sweep.
+    public OverdueTracker.Report getLastOverdueReport() { return overdue.getLastReport(); }
+
+    // Size and hit/miss/eviction counts of the search result cache.
+    public SearchCache.Stats getSearchCacheStats() { return searchCache.stats(); }
 
+    // Outstanding loans in issue order; never touches the history file.
+    public List<Loan> getActiveLoans() { return activeLoans.list(); }
 
+    // The member's outstanding loans in issue order, from the per-member index.
+    public List<Loan> getActiveLoans(String memberId) { return activeLoans.listForMember(memberId); }
 
+    public int getActiveLoanCount(String memberId) { return activeLoans.countForMember(memberId); }
+
+    // The member's returned loans, oldest return first. Loads the history on first use; after
+    // that only the member's own rows are visited.
+    public List<Loan> getMemberHistory(String memberId) {
+        LoanStore history = archive.load();
+        int[] rows = history.rowsOfMember(memberId);
+        List<Loan> result = new ArrayList<>(rows.length);
+        for (int row : rows) result.add(history.get(row));
+        return result;
+    }
+
+    // Returned loans, oldest return first; point-in-time read-only view, loaded on first use.
+    public List<Loan> getLoanHistory() { return archive.load().snapshot(); }
+}
@@ -0,0 +1,171 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+
+// Table model that reads rows straight from a list instead of copying them into Vectors.
+// JTable only asks for the cells it paints, so only the visible rows are ever touched.
+// Sorting and filtering permute an int[] of list indexes; the records themselves are not copied.
+// load() does the slow part (reading the source, filtering, sorting) and may run off the EDT;
+// apply() installs its result and must run on the EDT.
+public class ListTableModel<T> extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    // Swing models are Serializable, but this one is only ever shown, never written out.
+    private final transient Supplier<List<T>> source;
+    private final String[] columnNames;
+    private final transient List<Function<T, ?>> columns;
+
+    private transient List<T> rows = Collections.emptyList();
+    private int size;
+    // View row -> list index, or null when showing the whole list in its own order.
+    private int[] view;
+
+    // Set on the EDT, read by load() wherever it runs.
+    private volatile String filter = "";
+    private volatile int sortColumn = -1;
+    private volatile boolean ascending = true;
+
+    public ListTableModel(Supplier<List<T>> source, String[] columnNames, List<Function<T, ?>> columns) {
+        this.source = source;
+        this.columnNames = columnNames;
+        this.columns = List.copyOf(columns);
+    }
+
+    // Re-reads the list from the source, keeping the current sort and filter.
+    public void refresh() {
+        apply(load());
+    }
+
+    // Keeps rows with a cell containing the text, ignoring case; empty shows everything.
+    // Takes effect on the next refresh.
+    public void setFilter(String text) {
+        filter = text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Sorts by the column; sorting by the same column again flips the direction.
+    // Takes effect on the next refresh.
+    public void sortBy(int column) {
+        ascending = column != sortColumn || !ascending;
+        sortColumn = column;
+    }
+
+    public Snapshot<T> load() {
+        List<T> rows = source.get();
+        int size = rows.size();
+        String filter = this.filter;
+        int sortColumn = this.sortColumn;
+        boolean ascending = this.ascending;
+        if (filter.isEmpty() && sortColumn < 0) return new Snapshot<>(rows, size, null);
+
+        int[] idx = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (filter.isEmpty() || matches(rows.get(i), filter)) idx[n++] = i;
+        }
+        if (n < size) {
+            int[] shrunk = new int[n];
+            System.arraycopy(idx, 0, shrunk, 0, n);
+            idx = shrunk;
+        }
+        if (sortColumn >= 0) new IndexSort<>(rows, columns.get(sortColumn), ascending).sort(idx);
+        return new Snapshot<>(rows, size, idx);
+    }
+
+    public void apply(Snapshot<T> snapshot) {
+        rows = snapshot.rows;
+        size = snapshot.size;
+        view = snapshot.view;
+        fireTableDataChanged();
+    }
+
+    public T getRow(int row) {
+        return rows.get(view == null ? row : view[row]);
+    }
+
+    @Override
+    public int getRowCount() {
+        return view == null ? size : view.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return columns.get(column).apply(getRow(row));
+    }
+
+    private boolean matches(T item, String filter) {
+        for (Function<T, ?> column : columns) {
+            Object v = column.apply(item);
+            if (v != null && v.toString().toLowerCase(Locale.ROOT).contains(filter)) return true;
+        }
+        return false;
+    }
+
+    public static class Snapshot<T> {
+        private final List<T> rows;
+        private final int size;
+        private final int[] view;
+
+        private Snapshot(List<T> rows, int size, int[] view) {
+            this.rows = rows;
+            this.size = size;
+            this.view = view;
+        }
+    }
+
+    // Stable merge sort of list indexes by one column.
+    private static class IndexSort<T> {
+        private final List<T> rows;
+        private final Function<T, ?> column;
+        private final boolean ascending;
+
+        IndexSort(List<T> rows, Function<T, ?> column, boolean ascending) {
+            this.rows = rows;
+            this.column = column;
+            this.ascending = ascending;
+        }
+
+        void sort(int[] idx) {
+            sort(idx, new int[idx.length], 0, idx.length);
+        }
+
+        private void sort(int[] a, int[] tmp, int from, int to) {
+            if (to - from < 2) return;
+            int mid = (from + to) >>> 1;
+            sort(a, tmp, from, mid);
+            sort(a, tmp, mid, to);
+            if (compare(a[mid - 1], a[mid]) <= 0) return;
+            System.arraycopy(a, from, tmp, from, to - from);
+            int i = from, j = mid;
+            for (int k = from; k < to; k++) {
+                if (j >= to || (i < mid && compare(tmp[i], tmp[j]) <= 0)) a[k] = tmp[i++];
+                else a[k] = tmp[j++];
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private int compare(int x, int y) {
+            Object a = column.apply(rows.get(x));
+            Object b = column.apply(rows.get(y));
+            int c;
+            if (a == null || b == null) c = a == null ? (b == null ? 0 : -1) : 1;
+            else if (a instanceof String && b instanceof String) c = ((String) a).compareToIgnoreCase((String) b);
+            else if (a instanceof Comparable && a.getClass() == b.getClass()) c = ((Comparable) a).compareTo(b);
+            else c = a.toString().compareToIgnoreCase(b.toString());
+            return ascending ? c : -c;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+
+// Closed-loop load test for LibraryServer. Each client is a virtual thread that sends one
+// request, waits for the answer, and sends the next. The mix is mostly reads (availability,
+// lookup, search) with an issue followed by the matching return one time in ten. Reports
+// throughput and p50/p99 latency per request type.
+//
+// Usage: java LoadTest [--clients 64] [--seconds 10] [--data-dir dir]
+//        java LoadTest --url http://localhost:8080 [--writes] [--clients 64] [--seconds 10] [--data-dir dir]
+// ISBNs and member IDs are read from the data directory (library.dataDir by default).
+// By default a server runs in this process, on a temporary copy of that directory that is
+// deleted afterwards, so the test's loans never reach the real files; a sharded directory (see
+// ShardedLibraryService) is copied and opened with all its shards. With --url the requests go
+// to a running server and its real data instead: every return there is kept in the loan
+// history, so the issues and returns are only sent with --writes.
+public class LoadTest {
+    private static final String[] TYPES = {"availability", "book", "search", "issue", "return"};
+    private static final String[] WORDS = {"java", "history", "modern", "guide", "design", "systems", "art"};
+
+    public static void main(String[] args) throws Exception {
+        String url = null;
+        int clients = 64;
+        int seconds = 10;
+        String dataDir = null;
+        boolean writes = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--url": url = args[++i]; break;
+                case "--clients": clients = Integer.parseInt(args[++i]); break;
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--data-dir": dataDir = args[++i]; break;
+                case "--writes": writes = true; break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        File dir = dataDir == null ? new FileStorage().getDirectory() : new File(dataDir);
+        File[] shardDirs = ShardedLibraryService.shardDirs(dir);
+        List<String> isbns = new ArrayList<>();
+        List<String> members = new ArrayList<>();
+        for (File d : shardDirs == null ? new File[] {dir} : shardDirs) {
+            FileStorage storage = new FileStorage(d);
+            for (Book b : storage.loadBooks()) isbns.add(b.getIsbn());
+            // Members are kept in the first shard.
+            if (members.isEmpty()) {
+                for (Member m : storage.loadMembers()) members.add(m.getMemberId());
+            }
+        }
+        if (isbns.isEmpty() || members.isEmpty()) {
+            System.out.println("Need at least one book and one member in " + dir);
+            return;
+        }
+
+        Path copy = null;
+        Library service = null;
+        LibraryServer server = null;
+        try {
+            if (url == null) {
+                writes = true;
+                copy = copyOf(dir.toPath());
+                boolean journaled = Boolean.getBoolean("library.journal");
+                service = shardDirs == null
+                        ? new LibraryService(new FileStorage(copy.toFile()), journaled)
+                        : new ShardedLibraryService(copy.toFile(), shardDirs.length, journaled);
+                server = new LibraryServer(service, 0);
+                server.start();
+                url = "http://localhost:" + server.getPort();
+            }
+            run(url, clients, seconds, writes, isbns, members);
+        } finally {
+            if (server != null) server.stop(0);
+            if (service != null) service.close();
+            if (copy != null) deleteRecursively(copy);
+        }
+    }
+
+    // Copies the data directory, shard directories included, into a new temp directory.
+    private static Path copyOf(Path dir) throws IOException {
+        Path copy = Files.createTempDirectory("library-load");
+        System.out.println("Copying " + dir + " to " + copy);
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                Path target = copy.resolve(dir.relativize(p).toString());
+                if (Files.isDirectory(p)) Files.createDirectories(target);
+                else Files.copy(p, target);
+            }
+        }
+        return copy;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static void run(String url, int clients, int seconds, boolean writes, List<String> isbns,
+                            List<String> members) throws Exception {
+        // HTTP/1.1 keeps connections alive; the default h2c upgrade attempt costs a round trip per request.
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        System.out.println("Load test: " + clients + " clients for " + seconds + " s against " + url
+                + (writes ? "" : " (reads only; --writes adds issues and returns)"));
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Future<Samples>> futures = new ArrayList<>();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                futures.add(pool.submit(() -> client(http, url, deadline, writes, isbns, members)));
+            }
+        }
+        Samples all = new Samples();
+        for (Future<Samples> f : futures) all.addAll(f.get());
+
+        System.out.println(String.format(Locale.ROOT, "%-13s %9s %8s %10s %10s %10s",
+                "request", "count", "errors", "req/s", "p50 ms", "p99 ms"));
+        for (int t = 0; t < TYPES.length; t++) {
+            print(TYPES[t], all.latencies[t], all.counts[t], all.errors[t], seconds);
+        }
+        long[] merged = new long[0];
+        int total = 0;
+        int errors = 0;
+        for (int t = 0; t < TYPES.length; t++) {
+            merged = Arrays.copyOf(merged, total + all.counts[t]);
+            System.arraycopy(all.latencies[t], 0, merged, total, all.counts[t]);
+            total += all.counts[t];
+            errors += all.errors[t];
+        }
+        print("all", merged, total, errors, seconds);
+    }
+
+    private static Samples client(HttpClient http, String url, long deadline, boolean writes,
+                                  List<String> isbns, List<String> members) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Samples samples = new Samples();
+        while (System.nanoTime() < deadline) {
+            String isbn = isbns.get(random.nextInt(isbns.size()));
+            int roll = random.nextInt(writes ? 10 : 9);
+            if (roll < 4) {
+                send(http, samples, 0, HttpRequest.newBuilder(URI.create(url + "/books/" + encodePath(isbn) + "/availability")));
+            } else if (roll < 7) {
+                send(http, samples, 1, HttpRequest.newBuilder(URI.create(url + "/books/" + encodePath(isbn))));
+            } else if (roll < 9) {
+                String q = encode(WORDS[random.nextInt(WORDS.length)]);
+                send(http, samples, 2, HttpRequest.newBuilder(URI.create(url + "/books?by=title&q=" + q)));
+            } else {
+                String form = "isbn=" + encode(isbn) + "&memberId=" + encode(members.get(random.nextInt(members.size())));
+                // A 409 means the book was out, so there is nothing to return.
+                if (send(http, samples, 3, post(url + "/loans", form)) == 201) {
+                    send(http, samples, 4, post(url + "/returns", form));
+                }
+            }
+        }
+        return samples;
+    }
+
+    private static HttpRequest.Builder post(String uri, String form) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form));
+    }
+
+    // Status code, or -1 if the request failed outright. 404 and 409 are valid answers here,
+    // so only 5xx and I/O failures count as errors.
+    private static int send(HttpClient http, Samples samples, int type, HttpRequest.Builder request) {
+        long start = System.nanoTime();
+        int status;
+        try {
+            status = http.send(request.timeout(Duration.ofSeconds(30)).build(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (Exception e) {
+            status = -1;
+        }
+        samples.add(type, System.nanoTime() - start, status < 0 || status >= 500);
+        return status;
+    }
+
+    private static void print(String name, long[] latencies, int count, int errors, int seconds) {
+        Arrays.sort(latencies, 0, count);
+        System.out.println(String.format(Locale.ROOT, "%-13s %9d %8d %10.0f %10.2f %10.2f", name, count, errors,
+                count / (double) seconds, percentile(latencies, count, 0.50), percentile(latencies, count, 0.99)));
+    }
+
+    // Nearest-rank percentile of the first count (sorted) values, in milliseconds.
+    private static double percentile(long[] sorted, int count, double p) {
+        if (count == 0) return 0;
+        int rank = (int) Math.ceil(p * count) - 1;
+        return sorted[Math.max(0, rank)] / 1_000_000.0;
+    }
+
+    // For query strings and form bodies, where '+' means a space.
+    private static String encode(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+
+    // For a path segment: the server reads '+' in a path literally, so a space must be %20.
+    private static String encodePath(String s) {
+        return encode(s).replace("+", "%20");
+    }
+
+    // Latencies in nanoseconds per request type, kept per client so recording needs no locking.
+    private static class Samples {
+        final long[][] latencies = new long[TYPES.length][1024];
+        final int[] counts = new int[TYPES.length];
+        final int[] errors = new int[TYPES.length];
+
+        void add(int type, long nanos, boolean error) {
+            if (counts[type] == latencies[type].length) {
+                latencies[type] = Arrays.copyOf(latencies[type], counts[type] * 2);
+            }
+            latencies[type][counts[type]++] = nanos;
+            if (error) errors[type]++;
+        }
+
+        void addAll(Samples other) {
+            for (int t = 0; t < TYPES.length; t++) {
+                for (int i = 0; i < other.counts[t]; i++) add(t, other.latencies[t][i], false);
+                errors[t] += other.errors[t];
+            }
+        }
+    }
+}
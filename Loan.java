@@ -7,7 +7,7 @@ public class Loan {
     private String memberId;       
     private LocalDate issueDate;   
     private LocalDate dueDate;     
-    private boolean returned;      
+    private volatile boolean returned;      
 
     private static final DateTimeFormatter FMT = DateTimeFormatter.ISO_LOCAL_DATE; 
 
@@ -31,38 +31,25 @@ public class Loan {
     }
 
     public static Loan fromFileString(String line) {
-        if (line == null) return null;
-        String[] parts = line.split("\\|", -1);
-        if (parts.length < 5) return null;
-        String isbn = unescape(parts[0]);
-        String memberId = unescape(parts[1]);
-        LocalDate issue = LocalDate.parse(parts[2], FMT);
-        LocalDate due = LocalDate.parse(parts[3], FMT);
-        boolean ret = Boolean.parseBoolean(parts[4]);
-        return new Loan(isbn, memberId, issue, due, ret);
+        RecordParser p = RecordParser.local();
+        return p.reset(line) ? fromRecord(p) : null;
     }
 
-    private static String escape(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\").replace("|", "\\|");
+    // Lines with a malformed date are skipped rather than aborting the whole load.
+    static Loan fromRecord(RecordParser p) {
+        if (p.fieldCount() < 5) return null;
+        int issue = p.epochDay(2);
+        int due = p.epochDay(3);
+        if (issue == RecordParser.BAD_DATE || due == RecordParser.BAD_DATE) return null;
+        String isbn = p.string(0);
+        String memberId = p.string(1);
+        boolean ret = p.booleanValue(4);
+        return new Loan(isbn, memberId, LocalDate.ofEpochDay(issue), LocalDate.ofEpochDay(due), ret);
     }
 
-    private static String unescape(String s) {
+    private static String escape(String s) {
         if (s == null) return "";
-        StringBuilder out = new StringBuilder();
-        boolean escaping = false;
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (escaping) {
-                out.append(c);
-                escaping = false;
-            } else if (c == '\\') {
-                escaping = true;
-            } else {
-                out.append(c);
-            }
-        }
-        return out.toString();
+        return s.replace("\\", "\\\\").replace("|", "\\|");
     }
 
     @Override
@@ -0,0 +1,139 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+
+// Append-only history of returned loans in loan_history.txt. Only the first committedLength
+// bytes are part of the library: that length is recorded in loans.txt (or library.snap) by the
+// same write that drops the loans from the active set, so anything past it is a flush that
+// never finished. The file is only read when someone asks for the history.
+public class LoanArchive {
+    private static final Metrics.HitRate LOADED = Metrics.hitRate("cache.loanHistory");
+
+    private final File file;
+    private long committedLength;
+    // Returned since the last commit, oldest first.
+    private final List<Loan> pending = new ArrayList<>();
+    private LoanStore loaded;
+
+    // A negative length means unknown (older files): the whole history file is trusted.
+    public LoanArchive(File file, long committedLength) {
+        this.file = file;
+        long size = file.length();
+        this.committedLength = committedLength < 0 ? size : Math.min(committedLength, size);
+        if (size > this.committedLength) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(this.committedLength);
+            } catch (IOException e) {
+                System.out.println("Error truncating loan history: " + file + " -> " + e.getMessage());
+            }
+        }
+    }
+
+    public synchronized void add(Loan returned) {
+        pending.add(returned);
+        if (loaded != null) loaded.add(returned);
+    }
+
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long getCommittedLength() {
+        return committedLength;
+    }
+
+    // Writes the oldest count pending loans after the committed length and returns the new
+    // length to record. Nothing is committed until commit(); a retry rewrites the same bytes.
+    // Callers must not flush concurrently.
+    public long flush(int count) throws IOException {
+        long start = System.nanoTime();
+        long from;
+        StringBuilder sb = new StringBuilder();
+        synchronized (this) {
+            from = committedLength;
+            for (int i = 0; i < count; i++) sb.append(pending.get(i).toFileString()).append(System.lineSeparator());
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(from);
+            raf.seek(from);
+            raf.write(bytes);
+            raf.getFD().sync();
+        }
+        Metrics.recordIo("append", file.getName(), start, bytes.length, count);
+        return from + bytes.length;
+    }
+
+    public synchronized void commit(int count, long length) {
+        pending.subList(0, count).clear();
+        committedLength = length;
+    }
+
+    // The whole history, oldest first; reads loan_history.txt on first use.
+    public synchronized LoanStore load() {
+        if (!LOADED.record(loaded != null)) {
+            long start = System.nanoTime();
+            LoanStore store = new LoanStore();
+            for (LoanStore part : ParallelLoader.loadChunks(file, committedLength, LoanStore::new, LoanStore::add)) {
+                store.addAll(part);
+            }
+            Metrics.recordIo("load", file.getName(), start, committedLength, store.size());
+            for (Loan l : pending) store.add(l);
+            loaded = store;
+        }
+        return loaded;
+    }
+
+    // The history as of now, to fold over later without holding this archive's lock.
+    public synchronized Scan scan() {
+        if (loaded != null) return new Scan(file, 0, loaded.snapshot());
+        return new Scan(file, committedLength, new ArrayList<>(pending));
+    }
+
+    // Folds the history into an accumulator without collecting the loans. If the history is
+    // in memory its rows are folded in parallel ranges; otherwise loan_history.txt is read in
+    // parallel chunks up to the length committed when the scan was taken, then the loans
+    // returned since (which a later flush may have written past that length).
+    public static class Scan {
+        private static final int RANGE = 1 << 16;
+
+        private final File file;
+        private final long length;
+        private final List<Loan> inMemory;
+
+        Scan(File file, long length, List<Loan> inMemory) {
+            this.file = file;
+            this.length = length;
+            this.inMemory = inMemory;
+        }
+
+        // Each chunk or range gets an accumulator from newPart; merge combines two, older first.
+        public <A> A fold(Supplier<A> newPart, BiConsumer<A, Loan> accept, BinaryOperator<A> merge) {
+            A recent = fold(inMemory, newPart, accept, merge);
+            if (length == 0) return recent;
+            A stored = ParallelLoader.fold(file, length, newPart, (part, p) -> {
+                Loan l = Loan.fromRecord(p);
+                if (l != null) accept.accept(part, l);
+            }, merge);
+            return merge.apply(stored, recent);
+        }
+
+        static <A> A fold(List<Loan> loans, Supplier<A> newPart, BiConsumer<A, Loan> accept, BinaryOperator<A> merge) {
+            int ranges = (loans.size() + RANGE - 1) / RANGE;
+            return IntStream.range(0, ranges).parallel().mapToObj(r -> {
+                A part = newPart.get();
+                int end = Math.min(loans.size(), (r + 1) * RANGE);
+                for (int i = r * RANGE; i < end; i++) accept.accept(part, loans.get(i));
+                return part;
+            }).reduce(merge).orElseGet(newPart);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+// A batch of issues or returns (e.g. a stack of books scanned at a kiosk) and what happened to
+// each item. Built by LibraryService.issueBooks and returnBooks.
+public class LoanBatch {
+    static final String ROLLED_BACK = "not applied: another item in the batch failed";
+
+    public static class Item {
+        public final String isbn;
+        public final String memberId;
+        // Loan period; ignored for returns.
+        public final int days;
+
+        public Item(String isbn, String memberId, int days) {
+            this.isbn = isbn;
+            this.memberId = memberId;
+            this.days = days;
+        }
+
+        public Item(String isbn, String memberId) {
+            this(isbn, memberId, 0);
+        }
+    }
+
+    private final List<Item> items;
+    // Null while an item is fine, otherwise why it was not applied.
+    private final String[] errors;
+    private final double[] fines;
+    private double totalFine;
+
+    LoanBatch(List<Item> items) {
+        this.items = Collections.unmodifiableList(new ArrayList<>(items));
+        this.errors = new String[items.size()];
+        this.fines = new double[items.size()];
+    }
+
+    void fail(int i, String reason) {
+        errors[i] = reason;
+    }
+
+    void setFine(int i, double fine) {
+        totalFine += fine - fines[i];
+        fines[i] = fine;
+    }
+
+    // Marks every item that had not failed on its own as not applied.
+    void rollBack() {
+        for (int i = 0; i < errors.length; i++) {
+            if (errors[i] == null) errors[i] = ROLLED_BACK;
+        }
+        Arrays.fill(fines, 0);
+        totalFine = 0;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public boolean succeeded(int i) {
+        return errors[i] == null;
+    }
+
+    public String getError(int i) {
+        return errors[i];
+    }
+
+    public int getSucceededCount() {
+        int n = 0;
+        for (String e : errors) {
+            if (e == null) n++;
+        }
+        return n;
+    }
+
+    public boolean allSucceeded() {
+        return getSucceededCount() == items.size();
+    }
+
+    // Late fine of a returned item; 0 for issues.
+    public double getFine(int i) {
+        return fines[i];
+    }
+
+    public double getTotalFine() {
+        return totalFine;
+    }
+}
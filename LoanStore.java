@@ -0,0 +1,194 @@
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+
+// Column-oriented loan history: ISBN and member are interned int IDs, dates are epoch days
+// and the returned flags a bitset. A loan costs five int columns (ISBN, member, two dates and
+// the member chain below) plus one bit, about 20 bytes, instead of a Loan object with two
+// LocalDates. Rows are never removed or changed. Every method but asList is synchronized;
+// the list it returns locks the store on each call instead.
+//
+// Rows of the same member (case-insensitive) are chained newest to oldest, so one member's
+// loans are found without scanning the others.
+public class LoanStore {
+    private StringPool pool = new StringPool();
+    private int[] isbns = new int[16];
+    private int[] members = new int[16];
+    private int[] issueDays = new int[16];
+    private int[] dueDays = new int[16];
+    private long[] returned = new long[1];
+    // Previous row of the same member, or -1.
+    private int[] prevOfMember = new int[16];
+    // Latest row per member key ID (StringPool.keyId), or -1; indexed by pool ID.
+    private int[] lastOfMember = new int[0];
+    private int size;
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int add(Loan l) {
+        return add(pool.intern(l.getIsbn()), pool.intern(l.getMemberId()),
+                (int) l.getIssueDate().toEpochDay(), (int) l.getDueDate().toEpochDay(), l.isReturned());
+    }
+
+    public synchronized int add(String isbn, String memberId, int issueDay, int dueDay, boolean returned) {
+        return add(pool.intern(isbn), pool.intern(memberId), issueDay, dueDay, returned);
+    }
+
+    // Parses one loans.txt record straight into the columns; returns false for a malformed line.
+    public synchronized boolean add(RecordParser p) {
+        if (p.fieldCount() < 5) return false;
+        int issue = p.epochDay(2);
+        int due = p.epochDay(3);
+        if (issue == RecordParser.BAD_DATE || due == RecordParser.BAD_DATE) return false;
+        add(p.intern(0, pool), p.intern(1, pool), issue, due, p.booleanValue(4));
+        return true;
+    }
+
+    private int add(int isbn, int member, int issueDay, int dueDay, boolean ret) {
+        int row = size;
+        if (row == isbns.length) {
+            int n = Math.max(16, row + (row >> 1));
+            isbns = Arrays.copyOf(isbns, n);
+            members = Arrays.copyOf(members, n);
+            issueDays = Arrays.copyOf(issueDays, n);
+            dueDays = Arrays.copyOf(dueDays, n);
+            prevOfMember = Arrays.copyOf(prevOfMember, n);
+        }
+        if ((row >> 6) == returned.length) returned = Arrays.copyOf(returned, returned.length * 2);
+        isbns[row] = isbn;
+        members[row] = member;
+        issueDays[row] = issueDay;
+        dueDays[row] = dueDay;
+        if (ret) returned[row >> 6] |= 1L << row;
+        int key = pool.keyId(member);
+        if (key >= lastOfMember.length) {
+            int old = lastOfMember.length;
+            lastOfMember = Arrays.copyOf(lastOfMember, Math.max(64, Math.max(key + 1, pool.size())) * 2);
+            Arrays.fill(lastOfMember, old, lastOfMember.length, -1);
+        }
+        prevOfMember[row] = lastOfMember[key];
+        lastOfMember[key] = row;
+        size++;
+        return row;
+    }
+
+    // Appends all rows of another store, e.g. one parsed from a separate chunk of the file.
+    public synchronized void addAll(LoanStore other) {
+        synchronized (other) {
+            int[] remap = new int[other.pool.size()];
+            for (int id = 0; id < remap.length; id++) remap[id] = pool.intern(other.pool.get(id));
+            for (int row = 0; row < other.size; row++) {
+                add(remap[other.isbns[row]], remap[other.members[row]], other.issueDays[row], other.dueDays[row],
+                        other.isReturned(row));
+            }
+        }
+    }
+
+    public synchronized String isbn(int row) {
+        return pool.get(isbns[row]);
+    }
+
+    public synchronized String memberId(int row) {
+        return pool.get(members[row]);
+    }
+
+    public synchronized int issueDay(int row) {
+        return issueDays[row];
+    }
+
+    public synchronized int dueDay(int row) {
+        return dueDays[row];
+    }
+
+    public synchronized boolean isReturned(int row) {
+        return (returned[row >> 6] & (1L << row)) != 0;
+    }
+
+    // Materializes one row. Changing the returned Loan does not change the store.
+    public synchronized Loan get(int row) {
+        return new Loan(pool.get(isbns[row]), pool.get(members[row]), LocalDate.ofEpochDay(issueDays[row]),
+                LocalDate.ofEpochDay(dueDays[row]), isReturned(row));
+    }
+
+    // Rows of the member (case-insensitive), oldest first.
+    public synchronized int[] rowsOfMember(String memberId) {
+        int key = pool.findKey(memberId);
+        if (key < 0 || key >= lastOfMember.length) return new int[0];
+        int n = 0;
+        for (int row = lastOfMember[key]; row >= 0; row = prevOfMember[row]) n++;
+        int[] rows = new int[n];
+        for (int row = lastOfMember[key]; row >= 0; row = prevOfMember[row]) rows[--n] = row;
+        return rows;
+    }
+
+    // Read-only List view; each get() materializes a Loan for that row.
+    public List<Loan> asList() {
+        return new LoanList(this);
+    }
+
+    // Immutable view of the rows present now, read without locking the store. Columns are
+    // only written past the current size or copied when they grow, so the captured arrays
+    // are safe to share; only the returned bits are copied, since rows added later set bits
+    // in the same words.
+    public synchronized List<Loan> snapshot() {
+        return new Snapshot(pool.strings(), isbns, members, issueDays, dueDays,
+                Arrays.copyOf(returned, returned.length), size);
+    }
+
+    private static class Snapshot extends AbstractList<Loan> implements RandomAccess {
+        private final String[] strings;
+        private final int[] isbns;
+        private final int[] members;
+        private final int[] issueDays;
+        private final int[] dueDays;
+        private final long[] returned;
+        private final int size;
+
+        Snapshot(String[] strings, int[] isbns, int[] members, int[] issueDays, int[] dueDays,
+                 long[] returned, int size) {
+            this.strings = strings;
+            this.isbns = isbns;
+            this.members = members;
+            this.issueDays = issueDays;
+            this.dueDays = dueDays;
+            this.returned = returned;
+            this.size = size;
+        }
+
+        @Override
+        public Loan get(int row) {
+            Objects.checkIndex(row, size);
+            return new Loan(strings[isbns[row]], strings[members[row]], LocalDate.ofEpochDay(issueDays[row]),
+                    LocalDate.ofEpochDay(dueDays[row]), (returned[row >> 6] & (1L << row)) != 0);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private static class LoanList extends AbstractList<Loan> implements RandomAccess {
+        private final LoanStore store;
+
+        LoanList(LoanStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public Loan get(int index) {
+            return store.get(index);
+        }
+
+        @Override
+        public int size() {
+            return store.size();
+        }
+    }
+}
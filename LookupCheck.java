@@ -0,0 +1,200 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Stream;
+
+
+// Checks that the map lookups in findBookByIsbn and findMemberById find exactly what the old
+// linear scan (the first entry whose ID equalsIgnoreCase the one asked for) found, for IDs in
+// any mix of case, unknown IDs and letters whose case mapping is irregular. Also checks that
+// LibraryService.key puts two strings together exactly when equalsIgnoreCase does. Exits with
+// code 1 if anything does not match.
+//
+// Usage: java LookupCheck [--books 2000] [--probes 50000] [--seed 42]
+public class LookupCheck {
+
+    // Letters where toLowerCase and equalsIgnoreCase disagree, or that change length when cased.
+    private static final String[] IRREGULAR = {"İ", "ı", "i", "I", "ſ", "s", "S", "K", "k", "K",
+            "Σ", "σ", "ς", "ß", "ẞ", "ǅ", "Ǆ", "ǆ", "𐐀", "𐐨"};
+
+    private final List<String> failures = new ArrayList<>();
+    private int checks;
+
+    public static void main(String[] args) throws Exception {
+        int books = 2000;
+        int probes = 50_000;
+        long seed = 42;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--books": books = Integer.parseInt(args[++i]); break;
+                case "--probes": probes = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        LookupCheck check = new LookupCheck();
+        check.keys();
+        Path dir = Files.createTempDirectory("library-check");
+        try {
+            check.lookups(dir.toFile(), books, probes, new Random(seed));
+        } finally {
+            deleteRecursively(dir);
+        }
+        if (!check.failures.isEmpty()) {
+            int shown = Math.min(20, check.failures.size());
+            for (int i = 0; i < shown; i++) System.out.println("FAIL: " + check.failures.get(i));
+            System.out.println(check.failures.size() + " of " + check.checks + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("OK (" + check.checks + " checks)");
+    }
+
+    // Every code point against its upper, lower and title case forms, and the irregular letters
+    // against each other.
+    private void keys() {
+        for (int c = 0; c <= Character.MAX_CODE_POINT; c++) {
+            if (Character.isSurrogate((char) c) && c <= 0xFFFF) continue;
+            String s = new String(Character.toChars(c));
+            int[] variants = {Character.toUpperCase(c), Character.toLowerCase(c), Character.toTitleCase(c)};
+            for (int v : variants) sameKey(s, new String(Character.toChars(v)));
+            String upper = s.toUpperCase(Locale.ROOT);
+            sameKey(s, upper);
+            sameKey(s, s.toLowerCase(Locale.ROOT));
+        }
+        for (String a : IRREGULAR) {
+            for (String b : IRREGULAR) {
+                sameKey(a, b);
+                sameKey("isbn-" + a + "-x", "ISBN-" + b + "-X");
+            }
+        }
+        expect("key(null)", null, LibraryService.key(null));
+        String lower = "978-0-13-468599-1";
+        checks++;
+        if (LibraryService.key(lower) != lower) fail("key copied an ID that was already a key");
+    }
+
+    private void sameKey(String a, String b) {
+        expect("key(\"" + a + "\") vs key(\"" + b + "\")", a.equalsIgnoreCase(b),
+                LibraryService.key(a).equals(LibraryService.key(b)));
+    }
+
+    private void lookups(File dir, int bookCount, int probes, Random random) {
+        LibraryService service = new LibraryService(new FileStorage(dir), false);
+        try {
+            for (int i = 0; i < bookCount; i++) {
+                service.addBook(new Book(id("isbn-", i, random), "Title " + i, "Author " + i, 1 + random.nextInt(3)));
+            }
+            for (int i = 0; i < bookCount / 4; i++) {
+                service.addMember(new Member(id("m", i, random), "Member " + i, "m" + i + "@example.com"));
+            }
+            probe(service, probes, random, "");
+
+            // A loan issued under one spelling is found and returned under another.
+            Book b = service.getAllBooks().get(random.nextInt(service.getAllBooks().size()));
+            Member m = service.getAllMembers().get(0);
+            expect("issue " + b.getIsbn(), true, service.issueBook(b.getIsbn().toUpperCase(Locale.ROOT), mixCase(m.getMemberId(), random), 14));
+            expect("active for " + m.getMemberId(), 1, activeFor(service, mixCase(m.getMemberId(), random)));
+            expect("return " + b.getIsbn(), true, service.returnBook(mixCase(b.getIsbn(), random), m.getMemberId().toUpperCase(Locale.ROOT)) >= 0);
+            expect("active after return", 0, activeFor(service, m.getMemberId()));
+        } finally {
+            service.close();
+        }
+
+        // The maps rebuilt on load must agree as well.
+        LibraryService reopened = new LibraryService(new FileStorage(dir), false);
+        try {
+            probe(reopened, probes, random, "after reopening: ");
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private void probe(LibraryService service, int probes, Random random, String label) {
+        List<Book> books = service.getAllBooks();
+        List<Member> members = service.getAllMembers();
+        for (int i = 0; i < probes; i++) {
+            String isbn;
+            String memberId;
+            if (random.nextInt(10) == 0) {
+                isbn = id("isbn-", books.size() + i, random);
+                memberId = id("m", members.size() + i, random);
+            } else {
+                isbn = mixCase(books.get(random.nextInt(books.size())).getIsbn(), random);
+                memberId = mixCase(members.get(random.nextInt(members.size())).getMemberId(), random);
+            }
+            checks++;
+            if (service.findBookByIsbn(isbn) != scanBooks(books, isbn)) fail(label + "findBookByIsbn(\"" + isbn + "\")");
+            checks++;
+            if (service.findMemberById(memberId) != scanMembers(members, memberId)) fail(label + "findMemberById(\"" + memberId + "\")");
+        }
+        expect(label + "findBookByIsbn(null)", null, service.findBookByIsbn(null));
+        expect(label + "findMemberById(null)", null, service.findMemberById(null));
+    }
+
+    private static int activeFor(LibraryService service, String memberId) {
+        int n = 0;
+        for (Loan l : service.getAllLoans()) {
+            if (!l.isReturned() && l.getMemberId().equalsIgnoreCase(memberId)) n++;
+        }
+        return n;
+    }
+
+    // The lookups as they were before the maps.
+    private static Book scanBooks(List<Book> books, String isbn) {
+        for (Book b : books) {
+            if (b.getIsbn().equalsIgnoreCase(isbn)) return b;
+        }
+        return null;
+    }
+
+    private static Member scanMembers(List<Member> members, String id) {
+        for (Member m : members) {
+            if (m.getMemberId().equalsIgnoreCase(id)) return m;
+        }
+        return null;
+    }
+
+    // An ID built from a number, with now and then one of the irregular letters in it.
+    private static String id(String prefix, int n, Random random) {
+        String id = prefix + Integer.toString(n, 36);
+        if (random.nextInt(4) == 0) id += IRREGULAR[random.nextInt(IRREGULAR.length)];
+        return mixCase(id, random);
+    }
+
+    private static String mixCase(String s, Random random) {
+        StringBuilder sb = new StringBuilder(s.length());
+        s.codePoints().forEach(c -> {
+            switch (random.nextInt(3)) {
+                case 0: sb.appendCodePoint(Character.toUpperCase(c)); break;
+                case 1: sb.appendCodePoint(Character.toLowerCase(c)); break;
+                default: sb.appendCodePoint(c); break;
+            }
+        });
+        return sb.toString();
+    }
+
+    private void expect(String what, Object expected, Object actual) {
+        checks++;
+        if (!Objects.equals(expected, actual)) fail(what + ": expected <" + expected + "> but was <" + actual + ">");
+    }
+
+    private void fail(String message) {
+        failures.add(message);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -28,12 +28,15 @@ public class Member {
     }
 
     public static Member fromFileString(String line) {
-        if (line == null) return null;
-        String[] parts = line.split("\\|", -1);
-        if (parts.length < 3) return null;
-        String id = unescape(parts[0]);
-        String name = unescape(parts[1]);
-        String contact = unescape(parts[2]);
+        RecordParser p = RecordParser.local();
+        return p.reset(line) ? fromRecord(p) : null;
+    }
+
+    static Member fromRecord(RecordParser p) {
+        if (p.fieldCount() < 3) return null;
+        String id = p.string(0);
+        String name = p.string(1);
+        String contact = p.string(2);
         return new Member(id, name, contact);
     }
 
@@ -42,24 +45,6 @@ public class Member {
         return s.replace("\\", "\\\\").replace("|", "\\|");
     }
 
-    private static String unescape(String s) {
-        if (s == null) return "";
-        StringBuilder out = new StringBuilder();
-        boolean escaping = false;
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (escaping) {
-                out.append(c);
-                escaping = false;
-            } else if (c == '\\') {
-                escaping = true;
-            } else {
-                out.append(c);
-            }
-        }
-        return out.toString();
-    }
-
     @Override
     public String toString() {
         return "ID: " + memberId + ", Name: " + name + ", Contact: " + contact;
@@ -0,0 +1,321 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+
+// Process-wide counters, latency histograms and hit rates. Recording only touches LongAdders,
+// so it is safe on hot paths under contention; hold the Timer/Counter/HitRate in a static
+// field rather than looking it up by name on every call.
+//
+// Names are dotted, e.g. "service.issueBook" or "storage.save.books.txt". Everything is
+// visible through dump() (LibraryApp menu) and the JMX bean library:type=Metrics.
+public final class Metrics {
+    public static final String OBJECT_NAME = "library:type=Metrics";
+
+    private static final Map<String, Object> registry = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Timer timer(String name) {
+        return (Timer) registry.computeIfAbsent(name, n -> new Timer());
+    }
+
+    public static Counter counter(String name) {
+        return (Counter) registry.computeIfAbsent(name, n -> new Counter());
+    }
+
+    public static HitRate hitRate(String name) {
+        return (HitRate) registry.computeIfAbsent(name, n -> new HitRate());
+    }
+
+    // One file read or written: duration under storage.<op>.<file>, plus bytes and lines.
+    public static void recordIo(String op, String file, long startNanos, long bytes, long lines) {
+        String name = "storage." + op + "." + file;
+        timer(name).record(startNanos);
+        counter(name + ".bytes").add(bytes);
+        counter(name + ".lines").add(lines);
+    }
+
+    public static void reset() {
+        for (Object m : registry.values()) {
+            if (m instanceof Timer) ((Timer) m).reset();
+            else if (m instanceof Counter) ((Counter) m).value.reset();
+            else ((HitRate) m).reset();
+        }
+    }
+
+    // One line per metric, sorted by name.
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> e : new TreeMap<>(registry).entrySet()) {
+            sb.append(String.format(Locale.ROOT, "%-40s %s%n", e.getKey(), e.getValue()));
+        }
+        return sb.toString();
+    }
+
+    // Registers the JMX bean once per process; later calls do nothing.
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Another LibraryService in this process got there first.
+        } catch (JMException e) {
+            System.out.println("Error registering metrics MBean -> " + e.getMessage());
+        }
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(get());
+        }
+    }
+
+    public static final class HitRate {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        // Returns hit, so a lookup can be recorded inline.
+        public boolean record(boolean hit) {
+            (hit ? hits : misses).increment();
+            return hit;
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public double getRate() {
+            long h = getHits();
+            long total = h + getMisses();
+            return total == 0 ? 0 : (double) h / total;
+        }
+
+        void reset() {
+            hits.reset();
+            misses.reset();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "hits=%d misses=%d rate=%.1f%%", getHits(), getMisses(), getRate() * 100);
+        }
+    }
+
+    // Latency histogram with four buckets per power of two of nanoseconds, so a percentile is
+    // off by at most a quarter of its value.
+    public static final class Timer {
+        private static final int MAX_EXPONENT = 44;   // ~4.9 hours; anything longer lands in the last bucket
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] buckets = new LongAdder[(MAX_EXPONENT + 1) * 4];
+
+        Timer() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        // Records the time since startNanos, a System.nanoTime() value.
+        public void record(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        public void recordNanos(long nanos) {
+            if (nanos < 0) nanos = 0;
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            buckets[bucket(nanos)].increment();
+        }
+
+        private static int bucket(long nanos) {
+            if (nanos < 4) return (int) nanos;
+            int exp = 63 - Long.numberOfLeadingZeros(nanos);
+            if (exp > MAX_EXPONENT) return (MAX_EXPONENT + 1) * 4 - 1;
+            return exp * 4 + (int) ((nanos >>> (exp - 2)) & 3);
+        }
+
+        // Midpoint of a bucket's range.
+        private static double bucketValue(int i) {
+            if (i < 4) return i;
+            int shift = i / 4 - 2;
+            long lower = (4L + (i & 3)) << shift;
+            return lower + (1L << shift) / 2.0;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMeanMillis() {
+            long n = getCount();
+            return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        // p in [0, 1]; 0 if nothing was recorded.
+        public double percentileMillis(double p) {
+            long[] counts = new long[buckets.length];
+            long n = 0;
+            for (int i = 0; i < counts.length; i++) n += counts[i] = buckets[i].sum();
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p * n));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(bucketValue(i), maxNanos.get()) / 1e6;
+            }
+            return getMaxMillis();
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            for (LongAdder b : buckets) b.reset();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+                    getCount(), getMeanMillis(), percentileMillis(0.50), percentileMillis(0.99), getMaxMillis());
+        }
+    }
+
+    // Exposes every metric as read-only attributes, e.g. "service.issueBook.p99Millis".
+    // Metrics are created on first use, so the attribute list is rebuilt on each request.
+    private static final class MBean implements DynamicMBean {
+        private static final String[] TIMER_FIELDS = {"count", "meanMillis", "p50Millis", "p99Millis", "maxMillis"};
+        private static final String[] HIT_RATE_FIELDS = {"hits", "misses", "rate"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object m = registry.get(attribute);
+            if (m instanceof Counter) return ((Counter) m).get();
+            int dot = attribute.lastIndexOf('.');
+            if (dot > 0) {
+                m = registry.get(attribute.substring(0, dot));
+                String field = attribute.substring(dot + 1);
+                if (m instanceof Timer) {
+                    Timer t = (Timer) m;
+                    switch (field) {
+                        case "count": return t.getCount();
+                        case "meanMillis": return t.getMeanMillis();
+                        case "p50Millis": return t.percentileMillis(0.50);
+                        case "p99Millis": return t.percentileMillis(0.99);
+                        case "maxMillis": return t.getMaxMillis();
+                        default: break;
+                    }
+                } else if (m instanceof HitRate) {
+                    HitRate h = (HitRate) m;
+                    switch (field) {
+                        case "hits": return h.getHits();
+                        case "misses": return h.getMisses();
+                        case "rate": return h.getRate();
+                        default: break;
+                    }
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String a : attributes) {
+                try {
+                    list.add(new Attribute(a, getAttribute(a)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the DynamicMBean contract allows.
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            switch (actionName) {
+                case "dump": return dump();
+                case "reset": reset(); return null;
+                default: throw new ReflectionException(new NoSuchMethodException(actionName));
+            }
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (Map.Entry<String, Object> e : new TreeMap<>(registry).entrySet()) {
+                String name = e.getKey();
+                Object m = e.getValue();
+                if (m instanceof Counter) {
+                    attrs.add(attribute(name, "long"));
+                } else if (m instanceof Timer) {
+                    for (String f : TIMER_FIELDS) attrs.add(attribute(name + "." + f, f.equals("count") ? "long" : "double"));
+                } else {
+                    for (String f : HIT_RATE_FIELDS) attrs.add(attribute(name + "." + f, f.equals("rate") ? "double" : "long"));
+                }
+            }
+            MBeanOperationInfo[] ops = {
+                    new MBeanOperationInfo("dump", "All metrics as text", new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO),
+                    new MBeanOperationInfo("reset", "Zero every metric", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION)
+            };
+            return new MBeanInfo(Metrics.class.getName(), "Library service and storage metrics",
+                    attrs.toArray(new MBeanAttributeInfo[0]), null, ops, null);
+        }
+
+        private static MBeanAttributeInfo attribute(String name, String type) {
+            return new MBeanAttributeInfo(name, type, name, true, false, false);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+// Outstanding loans ordered by due date. A loan is overdue once its due date is before today,
+// so everything overdue is a head of the map and listing it costs only the size of the answer.
+public class OverdueTracker {
+    private final double finePerDay;
+    private final NavigableMap<LocalDate, Set<Loan>> byDueDate = new TreeMap<>();
+    private LocalDate lastSweep;
+    private Report lastReport;
+
+    public OverdueTracker(double finePerDay) {
+        this.finePerDay = finePerDay;
+    }
+
+    public synchronized void add(Loan loan) {
+        byDueDate.computeIfAbsent(loan.getDueDate(), d -> new LinkedHashSet<>()).add(loan);
+    }
+
+    public synchronized void remove(Loan loan) {
+        Set<Loan> due = byDueDate.get(loan.getDueDate());
+        if (due != null && due.remove(loan) && due.isEmpty()) byDueDate.remove(loan.getDueDate());
+    }
+
+    // Fine for a loan returned (or still out) on the given day.
+    public double fine(Loan loan, LocalDate today) {
+        if (!today.isAfter(loan.getDueDate())) return 0.0;
+        return ChronoUnit.DAYS.between(loan.getDueDate(), today) * finePerDay;
+    }
+
+    // Loans overdue on the given day, longest overdue first.
+    public synchronized List<Loan> overdue(LocalDate today) {
+        return collect(byDueDate.headMap(today, false));
+    }
+
+    // Fines accrued so far on the member's overdue loans; walks only the overdue loans.
+    public synchronized double outstandingFines(String memberId, LocalDate today) {
+        double total = 0;
+        for (Set<Loan> due : byDueDate.headMap(today, false).values()) {
+            for (Loan l : due) {
+                if (l.getMemberId().equalsIgnoreCase(memberId)) total += fine(l, today);
+            }
+        }
+        return total;
+    }
+
+    // Loans that became overdue since the previous sweep, plus the fines accrued so far on
+    // everything overdue. Meant to run once a day.
+    public synchronized Report sweep(LocalDate today) {
+        NavigableMap<LocalDate, Set<Loan>> overdue = byDueDate.headMap(today, false);
+        List<Loan> newlyOverdue = collect(lastSweep == null ? overdue : overdue.tailMap(lastSweep, true));
+        int count = 0;
+        double accrued = 0;
+        for (Set<Loan> due : overdue.values()) {
+            for (Loan l : due) {
+                count++;
+                accrued += fine(l, today);
+            }
+        }
+        lastSweep = today;
+        lastReport = new Report(today, newlyOverdue, count, accrued);
+        return lastReport;
+    }
+
+    public synchronized Report getLastReport() {
+        return lastReport;
+    }
+
+    private static List<Loan> collect(Map<LocalDate, Set<Loan>> dueDates) {
+        List<Loan> out = new ArrayList<>();
+        for (Set<Loan> due : dueDates.values()) out.addAll(due);
+        return out;
+    }
+
+    public static class Report {
+        public final LocalDate date;
+        public final List<Loan> newlyOverdue;
+        public final int overdueCount;
+        public final double accruedFines;
+
+        Report(LocalDate date, List<Loan> newlyOverdue, int overdueCount, double accruedFines) {
+            this.date = date;
+            this.newlyOverdue = Collections.unmodifiableList(newlyOverdue);
+            this.overdueCount = overdueCount;
+            this.accruedFines = accruedFines;
+        }
+
+        @Override
+        public String toString() {
+            return "Overdue sweep " + date + ": " + newlyOverdue.size() + " newly overdue, "
+                    + overdueCount + " overdue in total, Rs." + accruedFines + " in fines accrued";
+        }
+    }
+}
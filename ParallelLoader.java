@@ -0,0 +1,354 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+
+// Loads a record file by memory-mapping it in newline-aligned chunks and parsing the chunks
+// in parallel on the common fork/join pool. Only one decoded chunk per worker is alive at a
+// time, so peak heap stays close to the size of the parsed records. Record order is preserved.
+public class ParallelLoader {
+    private static final long MIN_CHUNK = 1 << 20;
+    private static final long MAX_CHUNK = 16 << 20;
+
+    public static <T> List<T> load(File file, Function<RecordParser, T> fromRecord) {
+        return load(file, fromRecord, null);
+    }
+
+    // Same, also working out the checksum (if not null) from the chunks as they are parsed.
+    public static <T> List<T> load(File file, Function<RecordParser, T> fromRecord, Checksum checksum) {
+        List<List<T>> parts = loadChunks(file, Long.MAX_VALUE, ArrayList::new, (part, p) -> {
+            T record = fromRecord.apply(p);
+            if (record != null) part.add(record);
+        }, checksum);
+        int total = 0;
+        for (List<T> part : parts) total += part.size();
+        List<T> out = new ArrayList<>(total);
+        for (List<T> part : parts) out.addAll(part);
+        return out;
+    }
+
+    // Feeds every record of a chunk to one accumulator made by newPart; the accumulators are
+    // returned in file order. Lets a caller collect into something other than a List.
+    public static <A> List<A> loadChunks(File file, Supplier<A> newPart, BiConsumer<A, RecordParser> accept) {
+        return loadChunks(file, Long.MAX_VALUE, newPart, accept);
+    }
+
+    // Same, but ignores everything after the first limit bytes.
+    public static <A> List<A> loadChunks(File file, long limit, Supplier<A> newPart, BiConsumer<A, RecordParser> accept) {
+        return loadChunks(file, limit, newPart, accept, null);
+    }
+
+    // Same, also working out the checksum (if not null) from the chunks as they are parsed.
+    public static <A> List<A> loadChunks(File file, long limit, Supplier<A> newPart, BiConsumer<A, RecordParser> accept,
+                                         Checksum checksum) {
+        if (!file.exists()) return new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel, Math.min(limit, channel.size()));
+            int chunks = bounds.length - 1;
+            List<A> parts = new ArrayList<>(chunks);
+            for (int i = 0; i < chunks; i++) parts.add(null);
+            if (checksum != null) checksum.start(bounds);
+
+            if (chunks == 1) {
+                parts.set(0, parseChunk(channel, bounds, 0, newPart, accept, checksum));
+            } else {
+                ForkJoinPool.commonPool().invoke(new ChunkTask<>(channel, bounds, 0, chunks, newPart, accept, checksum, parts));
+            }
+            return parts;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error reading file: " + file + " -> " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    // Like loadChunks, but merges the accumulators pairwise as chunks finish, keeping the file
+    // order, so only a few are alive at a time however big the file is. For aggregates such
+    // as report totals, where keeping one per chunk would grow with the file.
+    public static <A> A fold(File file, long limit, Supplier<A> newPart, BiConsumer<A, RecordParser> accept,
+                             BinaryOperator<A> merge) {
+        if (!file.exists()) return newPart.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel, Math.min(limit, channel.size()));
+            int chunks = bounds.length - 1;
+            if (chunks == 1) return parseChunk(channel, bounds, 0, newPart, accept, null);
+            return ForkJoinPool.commonPool().invoke(new FoldTask<>(channel, bounds, 0, chunks, newPart, accept, merge));
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error reading file: " + file + " -> " + e.getMessage());
+            return newPart.get();
+        }
+    }
+
+    // Start offsets of each chunk plus the end offset; every chunk but the last ends just after a '\n'.
+    private static long[] chunkBounds(FileChannel channel, long size) throws IOException {
+        int workers = ForkJoinPool.commonPool().getParallelism();
+        long target = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, size / (workers * 4L)));
+        List<Long> starts = new ArrayList<>();
+        starts.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long pos = target;
+        while (pos < size) {
+            long next = -1;
+            long scan = pos;
+            while (next < 0 && scan < size) {
+                probe.clear();
+                int n = channel.read(probe, scan);
+                if (n <= 0) break;
+                for (int i = 0; i < n; i++) {
+                    if (probe.get(i) == '\n') {
+                        next = scan + i + 1;
+                        break;
+                    }
+                }
+                scan += n;
+            }
+            if (next < 0 || next >= size) break;
+            starts.add(next);
+            pos = next + target;
+        }
+        long[] bounds = new long[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) bounds[i] = starts.get(i);
+        bounds[starts.size()] = size;
+        return bounds;
+    }
+
+    private static <A> A parseChunk(FileChannel channel, long[] bounds, int chunk, Supplier<A> newPart,
+                                    BiConsumer<A, RecordParser> accept, Checksum checksum)
+            throws CharacterCodingException, IOException {
+        A out = newPart.get();
+        long from = bounds[chunk];
+        long to = bounds[chunk + 1];
+        if (to <= from) {
+            if (checksum != null) checksum.add(chunk, null);
+            return out;
+        }
+        ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        if (checksum != null) checksum.add(chunk, bytes.duplicate());
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = decoder.decode(bytes);
+        RecordParser parser = new RecordParser();
+        int len = chars.length();
+        int start = 0;
+        while (start < len) {
+            int end = start;
+            while (end < len && chars.charAt(end) != '\n') end++;
+            int lineEnd = end > start && chars.charAt(end - 1) == '\r' ? end - 1 : end;
+            if (!isBlank(chars, start, lineEnd) && !isHeader(chars, start, lineEnd)) {
+                parser.reset(chars, start, lineEnd);
+                accept.accept(out, parser);
+            }
+            start = end + 1;
+        }
+        return out;
+    }
+
+    private static boolean isBlank(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) > ' ') return false;
+        }
+        return true;
+    }
+
+    private static boolean isHeader(CharSequence s, int from, int to) {
+        return startsWith(s, from, to, FileStorage.CHECKPOINT_PREFIX) || startsWith(s, from, to, FileStorage.ARCHIVE_PREFIX)
+                || startsWith(s, from, to, FileStorage.CHECKSUM_PREFIX);
+    }
+
+    private static boolean startsWith(CharSequence s, int from, int to, String prefix) {
+        if (to - from < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(from + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // ForkJoinTask is Serializable, but these tasks never leave the pool: the fields holding
+    // the file and callbacks are transient to say so.
+    private static class ChunkTask<A> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long[] bounds;
+        private final int lo;
+        private final int hi;
+        private final transient Supplier<A> newPart;
+        private final transient BiConsumer<A, RecordParser> accept;
+        private final transient Checksum checksum;
+        private final transient List<A> parts;
+
+        ChunkTask(FileChannel channel, long[] bounds, int lo, int hi, Supplier<A> newPart,
+                  BiConsumer<A, RecordParser> accept, Checksum checksum, List<A> parts) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+            this.newPart = newPart;
+            this.accept = accept;
+            this.checksum = checksum;
+            this.parts = parts;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                try {
+                    A part = parseChunk(channel, bounds, lo, newPart, accept, checksum);
+                    synchronized (parts) {
+                        parts.set(lo, part);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            ForkJoinTask.invokeAll(new ChunkTask<>(channel, bounds, lo, mid, newPart, accept, checksum, parts),
+                    new ChunkTask<>(channel, bounds, mid, hi, newPart, accept, checksum, parts));
+        }
+    }
+
+    private static class FoldTask<A> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long[] bounds;
+        private final int lo;
+        private final int hi;
+        private final transient Supplier<A> newPart;
+        private final transient BiConsumer<A, RecordParser> accept;
+        private final transient BinaryOperator<A> merge;
+
+        FoldTask(FileChannel channel, long[] bounds, int lo, int hi, Supplier<A> newPart,
+                 BiConsumer<A, RecordParser> accept, BinaryOperator<A> merge) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+            this.newPart = newPart;
+            this.accept = accept;
+            this.merge = merge;
+        }
+
+        @Override
+        protected A compute() {
+            if (hi - lo == 1) {
+                try {
+                    return parseChunk(channel, bounds, lo, newPart, accept, null);
+                } catch (IOException e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            }
+            int mid = (lo + hi) >>> 1;
+            FoldTask<A> left = new FoldTask<>(channel, bounds, lo, mid, newPart, accept, merge);
+            FoldTask<A> right = new FoldTask<>(channel, bounds, mid, hi, newPart, accept, merge);
+            right.fork();
+            A first = left.compute();
+            return merge.apply(first, right.join());
+        }
+    }
+
+    // CRC-32 of the bytes before a given offset, worked out chunk by chunk while the chunks are
+    // parsed, so checking a file's footer costs no second read. Chunks finish in any order; their
+    // CRCs are combined in file order at the end.
+    public static class Checksum {
+        private final long length;
+        private long[] bounds;
+        private long[] crcs;
+        private boolean[] done;
+
+        // length: how many leading bytes the checksum covers.
+        public Checksum(long length) {
+            this.length = length;
+        }
+
+        void start(long[] bounds) {
+            this.bounds = bounds;
+            crcs = new long[bounds.length - 1];
+            done = new boolean[bounds.length - 1];
+        }
+
+        // bytes holds the whole chunk, or is null for an empty one.
+        void add(int chunk, ByteBuffer bytes) {
+            long from = bounds[chunk];
+            long covered = Math.max(0, Math.min(bounds[chunk + 1], length) - from);
+            CRC32 crc = new CRC32();
+            if (bytes != null && covered > 0) crc.update(bytes.limit((int) covered));
+            synchronized (this) {
+                crcs[chunk] = crc.getValue();
+                done[chunk] = true;
+            }
+        }
+
+        // The CRC of the covered bytes, or -1 if the file was not read through to the end.
+        public synchronized long value() {
+            if (done == null || bounds[bounds.length - 1] < length) return -1;
+            long crc = 0;
+            for (int i = 0; i < crcs.length; i++) {
+                if (!done[i]) return -1;
+                long covered = Math.max(0, Math.min(bounds[i + 1], length) - bounds[i]);
+                crc = combine(crc, crcs[i], covered);
+            }
+            return crc;
+        }
+
+        // CRC of A followed by B from crc(A), crc(B) and the length of B, as zlib's
+        // crc32_combine: shifting crc(A) over B's length is a linear map over GF(2), applied
+        // by repeated squaring.
+        static long combine(long crcA, long crcB, long lengthB) {
+            if (lengthB <= 0) return crcA;
+            long[] even = new long[32];
+            long[] odd = new long[32];
+            // The operator for one zero bit.
+            odd[0] = 0xedb88320L;
+            long row = 1;
+            for (int n = 1; n < 32; n++) {
+                odd[n] = row;
+                row <<= 1;
+            }
+            square(even, odd);
+            square(odd, even);
+            long crc = crcA;
+            do {
+                square(even, odd);
+                if ((lengthB & 1) != 0) crc = times(even, crc);
+                lengthB >>= 1;
+                if (lengthB == 0) break;
+                square(odd, even);
+                if ((lengthB & 1) != 0) crc = times(odd, crc);
+                lengthB >>= 1;
+            } while (lengthB != 0);
+            return crc ^ crcB;
+        }
+
+        private static long times(long[] matrix, long vector) {
+            long sum = 0;
+            for (int i = 0; vector != 0; i++, vector >>>= 1) {
+                if ((vector & 1) != 0) sum ^= matrix[i];
+            }
+            return sum;
+        }
+
+        private static void square(long[] result, long[] matrix) {
+            for (int n = 0; n < 32; n++) result[n] = times(matrix, matrix[n]);
+        }
+    }
+}
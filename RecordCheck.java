@@ -0,0 +1,190 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+
+// Round-trip check for the record format: Book, Member and Loan written with toFileString must
+// read back the same through RecordParser and fromRecord, with pipes, backslashes, empty fields
+// and awkward dates. RecordParser's number, boolean and date readers are also compared with the
+// JDK parsers they replace. Exits with code 1 if anything does not match.
+//
+// Usage: java RecordCheck [--random 100000] [--seed 42]
+public class RecordCheck {
+
+    private static final String[] AWKWARD = {"", "plain", "|", "||", "\\", "\\\\", "a|b", "a\\|b", "a\\", "\\|",
+            "|a|", "trailing\\", "\\leading", "  spaced  ", "ünïcödé", "tab\there", "pipe|and\\slash|"};
+
+    private final List<String> failures = new ArrayList<>();
+    private final RecordParser parser = new RecordParser();
+    private int checks;
+
+    public static void main(String[] args) {
+        int random = 100_000;
+        long seed = 42;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--random": random = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        RecordCheck check = new RecordCheck();
+        check.fixedRecords();
+        check.randomRecords(random, new Random(seed));
+        check.numbers();
+        check.dates();
+        check.subRange();
+        if (!check.failures.isEmpty()) {
+            int shown = Math.min(20, check.failures.size());
+            for (int i = 0; i < shown; i++) System.out.println("FAIL: " + check.failures.get(i));
+            System.out.println(check.failures.size() + " of " + check.checks + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("OK (" + check.checks + " checks)");
+    }
+
+    private void fixedRecords() {
+        LocalDate[] dates = {LocalDate.of(1970, 1, 1), LocalDate.of(1969, 12, 31), LocalDate.of(2000, 2, 29),
+                LocalDate.of(2024, 2, 29), LocalDate.of(1900, 3, 1), LocalDate.of(9999, 12, 1), LocalDate.of(1, 1, 1)};
+        int[] quantities = {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (String a : AWKWARD) {
+            for (String b : AWKWARD) {
+                book(new Book(a, b, a + b, quantities[(a.length() + b.length()) % quantities.length]));
+                member(new Member(a, b, b + a));
+                for (LocalDate d : dates) {
+                    loan(new Loan(a, b, d, d.plusDays(14), (a.length() & 1) == 0));
+                }
+            }
+        }
+        // null fields are written as empty ones.
+        expect("null book fields", "|||0", new Book(null, null, null, 0).toFileString());
+        expect("null member fields", "||", new Member(null, null, null).toFileString());
+        Book b = Book.fromFileString(new Book(null, null, null, 0).toFileString());
+        expect("null book reads back empty", "", b == null ? null : b.getIsbn() + b.getTitle() + b.getAuthor());
+    }
+
+    private void randomRecords(int n, Random random) {
+        for (int i = 0; i < n; i++) {
+            LocalDate issue = LocalDate.ofEpochDay(random.nextInt(3_000_000) - 719_162);
+            book(new Book(text(random), text(random), text(random), random.nextInt()));
+            member(new Member(text(random), text(random), text(random)));
+            loan(new Loan(text(random), text(random), issue, issue.plusDays(random.nextInt(400)), random.nextBoolean()));
+        }
+    }
+
+    // Short strings heavy in the characters the format has to escape.
+    private static String text(Random random) {
+        String alphabet = "|\\ab1-_ é";
+        int len = random.nextInt(8);
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++) sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return sb.toString();
+    }
+
+    private void book(Book in) {
+        String line = in.toFileString();
+        Book out = parser.reset(line) ? Book.fromRecord(parser) : null;
+        if (out == null) {
+            fail("book did not parse: " + line);
+            return;
+        }
+        expect("book isbn " + line, in.getIsbn(), out.getIsbn());
+        expect("book title " + line, in.getTitle(), out.getTitle());
+        expect("book author " + line, in.getAuthor(), out.getAuthor());
+        expect("book quantity " + line, in.getQuantity(), out.getQuantity());
+        expect("book line " + line, line, out.toFileString());
+        expect("fromFileString " + line, line, Book.fromFileString(line).toFileString());
+    }
+
+    private void member(Member in) {
+        String line = in.toFileString();
+        Member out = parser.reset(line) ? Member.fromRecord(parser) : null;
+        if (out == null) {
+            fail("member did not parse: " + line);
+            return;
+        }
+        expect("member id " + line, in.getMemberId(), out.getMemberId());
+        expect("member name " + line, in.getName(), out.getName());
+        expect("member contact " + line, in.getContact(), out.getContact());
+        expect("member line " + line, line, out.toFileString());
+        expect("fromFileString " + line, line, Member.fromFileString(line).toFileString());
+    }
+
+    private void loan(Loan in) {
+        String line = in.toFileString();
+        Loan out = parser.reset(line) ? Loan.fromRecord(parser) : null;
+        if (out == null) {
+            fail("loan did not parse: " + line);
+            return;
+        }
+        expect("loan isbn " + line, in.getIsbn(), out.getIsbn());
+        expect("loan member " + line, in.getMemberId(), out.getMemberId());
+        expect("loan issued " + line, in.getIssueDate(), out.getIssueDate());
+        expect("loan due " + line, in.getDueDate(), out.getDueDate());
+        expect("loan returned " + line, in.isReturned(), out.isReturned());
+        expect("loan line " + line, line, out.toFileString());
+        expect("fromFileString " + line, line, Loan.fromFileString(line).toFileString());
+    }
+
+    private void numbers() {
+        String[] ints = {"0", "7", "-7", "+7", "007", "2147483647", "-2147483648", "2147483648", "-2147483649",
+                "99999999999", "", "-", "+", "1a", " 1", "1 ", "--1", "1.0", "x"};
+        for (String s : ints) {
+            Integer expected;
+            try {
+                expected = Integer.parseInt(s);
+            } catch (NumberFormatException e) {
+                expected = -99;
+            }
+            parser.reset(s);
+            expect("intValue \"" + s + "\"", expected, parser.intValue(0, -99));
+        }
+        String[] booleans = {"true", "TRUE", "True", "tRuE", "false", "", "yes", "1", "truee", "tru", " true"};
+        for (String s : booleans) {
+            parser.reset(s);
+            expect("booleanValue \"" + s + "\"", Boolean.parseBoolean(s), parser.booleanValue(0));
+        }
+    }
+
+    private void dates() {
+        // Every day from 1600 to 2400 against LocalDate.toEpochDay.
+        for (LocalDate d = LocalDate.of(1600, 1, 1); d.getYear() < 2400; d = d.plusDays(1)) {
+            parser.reset(d.toString());
+            if (parser.epochDay(0) != d.toEpochDay()) expect("epochDay " + d, d.toEpochDay(), (long) parser.epochDay(0));
+            else checks++;
+        }
+        String[] bad = {"2023-02-29", "1900-02-29", "2024-13-01", "2024-00-10", "2024-04-31", "2024-01-00",
+                "2024-1-01", "2024/01/01", "20240101", "", "abcd-ef-gh", "2024-01-011", " 2024-01-01"};
+        for (String s : bad) {
+            parser.reset(s);
+            expect("bad date \"" + s + "\"", RecordParser.BAD_DATE, parser.epochDay(0));
+        }
+        // A malformed date drops the loan instead of failing the load.
+        expect("loan with bad date", null, Loan.fromFileString("isbn|m1|2024-02-30|2024-03-10|false"));
+        expect("loan with missing fields", null, Loan.fromFileString("isbn|m1|2024-02-01"));
+    }
+
+    private void subRange() {
+        // ParallelLoader parses lines in place inside a larger buffer.
+        String line = new Loan("a|b", "c\\", LocalDate.of(2024, 2, 29), LocalDate.of(2024, 3, 14), true).toFileString();
+        String buffer = "junk|\\\n" + line + "\nmore|junk";
+        int from = buffer.indexOf('\n') + 1;
+        parser.reset(buffer, from, from + line.length());
+        Loan out = Loan.fromRecord(parser);
+        expect("sub-range loan", line, out == null ? null : out.toFileString());
+    }
+
+    private void expect(String what, Object expected, Object actual) {
+        checks++;
+        if (!Objects.equals(expected, actual)) fail(what + ": expected <" + expected + "> but was <" + actual + ">");
+    }
+
+    private void fail(String message) {
+        failures.add(message);
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.Arrays;
+
+
+// Single-pass parser for the pipe-delimited records in books.txt, members.txt and loans.txt.
+// reset() only records where each field starts and ends; strings are created only for the
+// fields a caller asks for, and numbers, dates and booleans are read straight from the chars.
+// A backslash escapes the next character, so "\|" is a literal pipe inside a field.
+public class RecordParser {
+    public static final int BAD_DATE = Integer.MIN_VALUE;
+
+    private static final ThreadLocal<RecordParser> LOCAL = ThreadLocal.withInitial(RecordParser::new);
+
+    private CharSequence line;
+    private int count;
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private boolean[] escaped = new boolean[8];
+
+    // Shared per-thread instance for one-off parses such as Book.fromFileString.
+    public static RecordParser local() {
+        return LOCAL.get();
+    }
+
+    public boolean reset(CharSequence line) {
+        return line != null && reset(line, 0, line.length());
+    }
+
+    public boolean reset(CharSequence line, int from, int to) {
+        this.line = line;
+        count = 0;
+        int start = from;
+        boolean esc = false;
+        for (int i = from; i < to; i++) {
+            char c = line.charAt(i);
+            if (c == '\\') {
+                esc = true;
+                i++;
+            } else if (c == '|') {
+                addField(start, i, esc);
+                start = i + 1;
+                esc = false;
+            }
+        }
+        addField(start, to, esc);
+        return true;
+    }
+
+    private void addField(int start, int end, boolean esc) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+            escaped = Arrays.copyOf(escaped, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        escaped[count] = esc;
+        count++;
+    }
+
+    public int fieldCount() {
+        return count;
+    }
+
+    public String string(int field) {
+        int from = starts[field];
+        int to = ends[field];
+        if (!escaped[field]) return line.subSequence(from, to).toString();
+        StringBuilder out = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < to) c = line.charAt(++i);
+            else if (c == '\\') continue;
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    // Interns the field in the pool; unescaped fields are looked up without creating a String.
+    public int intern(int field, StringPool pool) {
+        if (escaped[field]) return pool.intern(string(field));
+        return pool.intern(line, starts[field], ends[field]);
+    }
+
+    // Same results as Integer.parseInt, but returns defaultValue instead of throwing.
+    public int intValue(int field, int defaultValue) {
+        int from = starts[field];
+        int to = ends[field];
+        if (from >= to) return defaultValue;
+        boolean negative = false;
+        char first = line.charAt(from);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++from == to) return defaultValue;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int d = line.charAt(i) - '0';
+            if (d < 0 || d > 9) return defaultValue;
+            value = value * 10 + d;
+            if (value > (long) Integer.MAX_VALUE + 1) return defaultValue;
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) return defaultValue;
+        return (int) value;
+    }
+
+    // Same results as Boolean.parseBoolean.
+    public boolean booleanValue(int field) {
+        int from = starts[field];
+        if (ends[field] - from != 4) return false;
+        return (line.charAt(from) | 0x20) == 't' && (line.charAt(from + 1) | 0x20) == 'r'
+                && (line.charAt(from + 2) | 0x20) == 'u' && (line.charAt(from + 3) | 0x20) == 'e';
+    }
+
+    // Reads a yyyy-MM-dd date as days since 1970-01-01 (LocalDate.toEpochDay), or BAD_DATE.
+    public int epochDay(int field) {
+        int from = starts[field];
+        if (ends[field] - from != 10) return BAD_DATE;
+        if (line.charAt(from + 4) != '-' || line.charAt(from + 7) != '-') return BAD_DATE;
+        int y = digits(from, 4);
+        int m = digits(from + 5, 2);
+        int d = digits(from + 8, 2);
+        if (y < 0 || m < 1 || m > 12 || d < 1 || d > monthLength(y, m)) return BAD_DATE;
+        return epochDay(y, m, d);
+    }
+
+    private int digits(int from, int n) {
+        int v = 0;
+        for (int i = from; i < from + n; i++) {
+            int c = line.charAt(i) - '0';
+            if (c < 0 || c > 9) return -1;
+            v = v * 10 + c;
+        }
+        return v;
+    }
+
+    private static int monthLength(int y, int m) {
+        if (m == 2) return (y % 4 == 0 && (y % 100 != 0 || y % 400 == 0)) ? 29 : 28;
+        return (m == 4 || m == 6 || m == 9 || m == 11) ? 30 : 31;
+    }
+
+    // Days from civil date, proleptic Gregorian (valid for years 0-9999 as read above).
+    static int epochDay(int y, int m, int d) {
+        if (m <= 2) y--;
+        int era = Math.floorDiv(y, 400);
+        int yoe = y - era * 400;
+        int doy = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5 + d - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+
+// Circulation reports over every loan, history included, written as CSV or JSON. Loans are
+// never collected: Library.scanLoans folds the history file chunk by chunk in parallel into
+// small aggregates that are merged as chunks finish, and rows go straight to the file.
+// Memory depends on the number of titles and members, not on the number of loans.
+public class ReportEngine {
+    public enum Format { CSV, JSON }
+
+    public enum Type {
+        // Loans per title per month of issue.
+        TITLES_BY_MONTH("titles-by-month"),
+        // Members with the most loans, with how many are out and overdue now.
+        TOP_BORROWERS("top-borrowers"),
+        // Loans out now, by how many days overdue they are.
+        OVERDUE_AGEING("overdue-ageing");
+
+        final String label;
+
+        Type(String label) {
+            this.label = label;
+        }
+
+        static Type of(String label) {
+            for (Type t : values()) {
+                if (t.label.equalsIgnoreCase(label)) return t;
+            }
+            return null;
+        }
+    }
+
+    // Upper bounds (inclusive) of the overdue ageing buckets, in days; the last one is open.
+    private static final int[] AGEING_DAYS = {7, 30, 90};
+    private static final String[] AGEING_LABELS = {"1-7", "8-30", "31-90", "91+"};
+
+    private final Library library;
+    private final LocalDate today;
+
+    public ReportEngine(Library library, LocalDate today) {
+        this.library = library;
+        this.today = today;
+    }
+
+    // Writes the report to out and returns the number of rows; top limits TOP_BORROWERS.
+    public int write(Type type, Format format, int top, File out) throws IOException {
+        try (Rows rows = new Rows(Files.newBufferedWriter(out.toPath(), StandardCharsets.UTF_8), format)) {
+            switch (type) {
+                case TITLES_BY_MONTH: titlesByMonth(rows); break;
+                case TOP_BORROWERS: topBorrowers(rows, top); break;
+                default: overdueAgeing(rows); break;
+            }
+            return rows.count;
+        }
+    }
+
+    private void titlesByMonth(Rows rows) throws IOException {
+        // ISBN -> month (year * 12 + month - 1) -> loans.
+        Map<String, Map<Integer, long[]>> counts = library.scanLoans(HashMap::new, (part, l) -> {
+            int month = l.getIssueDate().getYear() * 12 + l.getIssueDate().getMonthValue() - 1;
+            part.computeIfAbsent(LibraryService.key(l.getIsbn()), k -> new HashMap<>())
+                    .computeIfAbsent(month, k -> new long[1])[0]++;
+        }, (a, b) -> {
+            for (Map.Entry<String, Map<Integer, long[]>> e : b.entrySet()) {
+                Map<Integer, long[]> months = a.computeIfAbsent(e.getKey(), k -> new HashMap<>());
+                for (Map.Entry<Integer, long[]> m : e.getValue().entrySet()) {
+                    months.computeIfAbsent(m.getKey(), k -> new long[1])[0] += m.getValue()[0];
+                }
+            }
+            return a;
+        });
+        // Sorted only now, once per title rather than once per loan.
+        Map<String, Map<Integer, long[]>> total = new TreeMap<>();
+        for (Map.Entry<String, Map<Integer, long[]>> e : counts.entrySet()) total.put(e.getKey(), new TreeMap<>(e.getValue()));
+        rows.header("isbn", "title", "month", "loans");
+        for (Map.Entry<String, Map<Integer, long[]>> e : total.entrySet()) {
+            Book b = library.findBookByIsbn(e.getKey());
+            String isbn = b == null ? e.getKey() : b.getIsbn();
+            String title = b == null ? "" : b.getTitle();
+            for (Map.Entry<Integer, long[]> m : e.getValue().entrySet()) {
+                String month = String.format(Locale.ROOT, "%04d-%02d", m.getKey() / 12, m.getKey() % 12 + 1);
+                rows.row(isbn, title, month, m.getValue()[0]);
+            }
+        }
+    }
+
+    private static class Borrower {
+        final String memberId;
+        long loans;
+        long out;
+        long overdue;
+
+        Borrower(String memberId) {
+            this.memberId = memberId;
+        }
+
+        void add(Borrower other) {
+            loans += other.loans;
+            out += other.out;
+            overdue += other.overdue;
+        }
+    }
+
+    private void topBorrowers(Rows rows, int top) throws IOException {
+        Map<String, Borrower> total = library.scanLoans(HashMap::new, (part, l) -> {
+            Borrower b = part.computeIfAbsent(LibraryService.key(l.getMemberId()), k -> new Borrower(l.getMemberId()));
+            b.loans++;
+            if (!l.isReturned()) {
+                b.out++;
+                if (l.getDueDate().isBefore(today)) b.overdue++;
+            }
+        }, (a, b) -> {
+            for (Map.Entry<String, Borrower> e : b.entrySet()) {
+                Borrower existing = a.putIfAbsent(e.getKey(), e.getValue());
+                if (existing != null) existing.add(e.getValue());
+            }
+            return a;
+        });
+        // Keeps the top N in a min-heap instead of sorting every member.
+        PriorityQueue<Borrower> best = new PriorityQueue<>((a, b) -> a.loans != b.loans
+                ? Long.compare(a.loans, b.loans) : b.memberId.compareTo(a.memberId));
+        for (Borrower b : total.values()) {
+            best.add(b);
+            if (best.size() > Math.max(1, top)) best.poll();
+        }
+        List<Borrower> ranked = new ArrayList<>(best);
+        ranked.sort(best.comparator().reversed());
+        rows.header("rank", "memberId", "name", "loans", "out", "overdue");
+        for (Borrower b : ranked) {
+            Member m = library.findMemberById(b.memberId);
+            rows.row(rows.count + 1, b.memberId, m == null ? "" : m.getName(), b.loans, b.out, b.overdue);
+        }
+    }
+
+    private void overdueAgeing(Rows rows) throws IOException {
+        int buckets = AGEING_LABELS.length;
+        // Per bucket: loans, then fines in hundredths, so merging stays exact.
+        long[] total = library.scanLoans(() -> new long[buckets * 2], (part, l) -> {
+            if (l.isReturned() || !l.getDueDate().isBefore(today)) return;
+            long days = ChronoUnit.DAYS.between(l.getDueDate(), today);
+            int bucket = 0;
+            while (bucket < AGEING_DAYS.length && days > AGEING_DAYS[bucket]) bucket++;
+            part[bucket]++;
+            part[buckets + bucket] += Math.round(library.getFineDue(l) * 100);
+        }, (a, b) -> {
+            for (int i = 0; i < a.length; i++) a[i] += b[i];
+            return a;
+        });
+        rows.header("daysOverdue", "loans", "finesDue");
+        for (int i = 0; i < buckets; i++) {
+            rows.row(AGEING_LABELS[i], total[i], BigDecimal.valueOf(total[buckets + i], 2));
+        }
+    }
+
+    // Writes rows as they come: CSV with a header line, or a JSON array of objects.
+    private static class Rows implements AutoCloseable {
+        private final Writer out;
+        private final Format format;
+        private String[] columns;
+        int count;
+
+        Rows(Writer out, Format format) {
+            this.out = out;
+            this.format = format;
+        }
+
+        void header(String... columns) throws IOException {
+            this.columns = columns;
+            if (format == Format.CSV) {
+                for (int i = 0; i < columns.length; i++) out.write((i > 0 ? "," : "") + columns[i]);
+                out.write("\n");
+            } else {
+                out.write("[");
+            }
+        }
+
+        // Numbers go out as numbers; everything else as text.
+        void row(Object... values) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            if (format == Format.CSV) {
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) sb.append(',');
+                    sb.append(values[i] instanceof Number ? values[i].toString() : csv(String.valueOf(values[i])));
+                }
+                sb.append('\n');
+            } else {
+                sb.append(count == 0 ? "\n  {" : ",\n  {");
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) sb.append(", ");
+                    sb.append(LibraryServer.quote(columns[i])).append(": ");
+                    sb.append(values[i] instanceof Number ? values[i].toString() : LibraryServer.quote(String.valueOf(values[i])));
+                }
+                sb.append('}');
+            }
+            out.write(sb.toString());
+            count++;
+        }
+
+        private static String csv(String s) {
+            if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) return s;
+            return '"' + s.replace("\"", "\"\"") + '"';
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (format == Format.JSON && columns != null) out.write(count == 0 ? "]\n" : "\n]\n");
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    static String usage() {
+        return "java ReportEngine titles-by-month|top-borrowers|overdue-ageing csv|json <out-file> [--top N]";
+    }
+
+    // Usage: see usage(). Reads the data directory of a normal start (library.dataDir,
+    // library.shards); top-borrowers lists 20 members unless --top says otherwise.
+    public static void main(String[] args) throws IOException {
+        Type type = args.length >= 3 ? Type.of(args[0]) : null;
+        Format format = null;
+        if (args.length >= 3) {
+            for (Format f : Format.values()) {
+                if (f.name().equalsIgnoreCase(args[1])) format = f;
+            }
+        }
+        int top = 20;
+        if (args.length == 5 && args[3].equals("--top")) top = Integer.parseInt(args[4]);
+        if (type == null || format == null || (args.length != 3 && args.length != 5)) {
+            System.out.println("Usage: " + usage());
+            return;
+        }
+        File out = new File(args[2]);
+        Library library = Library.open();
+        try {
+            long start = System.nanoTime();
+            int rows = new ReportEngine(library, LocalDate.now()).write(type, format, top, out);
+            System.out.println("Wrote " + rows + " rows to " + out + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } finally {
+            library.close();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+
+// LRU cache of search results, bounded by entry count and by the total number of books held
+// in results. Keyword queries are normalized to their sorted tokens, so "Java  Basics" and
+// "basics java" share an entry. Title and author queries are keyed by the lower-cased query
+// itself, since their substring matches depend on its exact text.
+//
+// When a book is added, only the entries whose query the new book matches are dropped; the
+// others cannot gain a result from it. A quantity change keeps every entry, since results
+// hold the Book objects themselves. LibraryService calls get/put under the catalog read lock
+// and invalidate under the write lock, so a result computed before an add is never stored
+// after it.
+public class SearchCache {
+    public enum Kind { TITLE, AUTHOR, KEYWORDS }
+
+    private static final Metrics.HitRate LOOKUPS = Metrics.hitRate("cache.search");
+    private static final Metrics.Counter EVICTIONS = Metrics.counter("cache.search.evictions");
+    private static final Metrics.Counter INVALIDATIONS = Metrics.counter("cache.search.invalidations");
+
+    private static class Entry {
+        final Kind kind;
+        // Query tokens; empty for a query with no letters or digits.
+        final List<String> terms;
+        // Lower-cased query, for the substring match of title and author searches.
+        final String needle;
+        final List<Book> result;
+
+        Entry(Kind kind, List<String> terms, String needle, List<Book> result) {
+            this.kind = kind;
+            this.terms = terms;
+            this.needle = needle;
+            this.result = result;
+        }
+
+        int weight() {
+            return 1 + result.size();
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    // maxWeight counts one per entry plus one per book in its result; 0 disables the cache.
+    public SearchCache(int maxEntries, long maxWeight) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxWeight = Math.max(0, maxWeight);
+    }
+
+    // Cached result (read-only), or null.
+    public synchronized List<Book> get(Kind kind, String query) {
+        Entry e = entries.get(key(kind, query));
+        if (e == null) misses++;
+        else hits++;
+        LOOKUPS.record(e != null);
+        return e == null ? null : e.result;
+    }
+
+    // Stores the result if it fits and returns it read-only, for the caller to hand out.
+    public synchronized List<Book> put(Kind kind, String query, List<Book> result) {
+        List<Book> stored = Collections.unmodifiableList(result);
+        List<String> terms = terms(query);
+        Entry e = new Entry(kind, terms, needle(query), stored);
+        if (e.weight() > maxWeight || maxEntries == 0) return stored;
+        Entry old = entries.put(key(kind, terms, query), e);
+        if (old != null) weight -= old.weight();
+        weight += e.weight();
+        Iterator<Entry> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            weight -= eldest.weight();
+            evictions++;
+            EVICTIONS.increment();
+        }
+        return stored;
+    }
+
+    // Drops the entries a newly added book would appear in.
+    public synchronized void invalidate(Book added) {
+        if (entries.isEmpty()) return;
+        List<String> title = SearchIndex.tokenize(added.getTitle());
+        List<String> author = SearchIndex.tokenize(added.getAuthor());
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (matches(e, added, title, author)) {
+                it.remove();
+                weight -= e.weight();
+                INVALIDATIONS.increment();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        INVALIDATIONS.add(entries.size());
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Mirrors the matching rules of LibraryService's searches. A title or author search returns
+    // both token and substring matches, so a book matching either way changes its result.
+    private static boolean matches(Entry e, Book b, List<String> title, List<String> author) {
+        if (e.kind != Kind.KEYWORDS) {
+            String field = e.kind == Kind.TITLE ? b.getTitle() : b.getAuthor();
+            if (field.toLowerCase(Locale.ROOT).contains(e.needle)) return true;
+        }
+        if (e.terms.isEmpty()) return false;
+        if (e.kind == Kind.KEYWORDS) {
+            for (String term : e.terms) {
+                if (prefixOfAny(term, title) || prefixOfAny(term, author)) return true;
+            }
+            return false;
+        }
+        List<String> tokens = e.kind == Kind.TITLE ? title : author;
+        for (String term : e.terms) {
+            if (!prefixOfAny(term, tokens)) return false;
+        }
+        return true;
+    }
+
+    private static boolean prefixOfAny(String term, List<String> tokens) {
+        for (String t : tokens) {
+            if (t.startsWith(term)) return true;
+        }
+        return false;
+    }
+
+    private static List<String> terms(String query) {
+        List<String> terms = new ArrayList<>(SearchIndex.tokenize(query));
+        // Keywords add up per-term matches, so their order never matters.
+        Collections.sort(terms);
+        return terms;
+    }
+
+    // Same lower-casing as SearchIndex's substring match.
+    private static String needle(String query) {
+        return query.toLowerCase(Locale.ROOT);
+    }
+
+    private static String key(Kind kind, String query) {
+        return key(kind, terms(query), query);
+    }
+
+    private static String key(Kind kind, List<String> terms, String query) {
+        if (kind != Kind.KEYWORDS || terms.isEmpty()) return kind.ordinal() + "#" + needle(query);
+        return kind.ordinal() + " " + String.join(" ", terms);
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(entries.size(), weight, hits, misses, evictions);
+    }
+
+    @Override
+    public String toString() {
+        return stats().toString();
+    }
+
+    // Counts at one moment; ShardedLibraryService adds up its shards' with plus.
+    public static class Stats {
+        public final int entries;
+        public final long weight;
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+
+        Stats(int entries, long weight, long hits, long misses, long evictions) {
+            this.entries = entries;
+            this.weight = weight;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public Stats plus(Stats other) {
+            return new Stats(entries + other.entries, weight + other.weight, hits + other.hits,
+                    misses + other.misses, evictions + other.evictions);
+        }
+
+        @Override
+        public String toString() {
+            long total = hits + misses;
+            return String.format(Locale.ROOT, "%d entries (weight %d), %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                    entries, weight, hits, misses, total == 0 ? 0 : hits * 100.0 / total, evictions);
+        }
+    }
+}
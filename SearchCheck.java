@@ -0,0 +1,181 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+
+// Checks title and author searches against the documented matching rules, with the queries run
+// in both orders on services that start with a cold cache: each query is asked once before and
+// once after the queries with the same words in another order (or another spacing or case), so
+// a cache entry shared between two of them shows up as a wrong result. Generated books and
+// random pieces of their titles and authors exercise the substring index. Runs against a
+// LibraryService and a ShardedLibraryService. Exits with code 1 if anything does not match.
+//
+// Usage: java SearchCheck [--books 500] [--shards 3] [--seed 42]
+public class SearchCheck {
+
+    private static final String[][] BOOKS = {
+            {"Java Basics", "Ava Brooks"},
+            {"Scripting 101", "Bob Avery"},
+            {"JavaScript Guide", "Jo Bava"},
+            {"Basic Avalanche", "Brooks Ava"},
+            {"The Guide to Java", "Ava B. Script"},
+            {"Lava Bread", "Java Baker"},
+            {"Scripts & Guides", "A. Vab"},
+            {"101 Basics", "Bo Java-Scripter"},
+    };
+
+    private static final String[] WORDS = {"ava", "b", "java", "script", "guide", "ja", "basics", "101", "s", "bro",
+            "ripting", "uide", "cs 1", "t g", "ery"};
+
+    private final List<String> failures = new ArrayList<>();
+    private int checks;
+
+    public static void main(String[] args) throws Exception {
+        int generated = 500;
+        int shards = 3;
+        long seed = 42;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--books": generated = Integer.parseInt(args[++i]); break;
+                case "--shards": shards = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < BOOKS.length; i++) {
+            books.add(new Book(String.format("978%010d", i), BOOKS[i][0], BOOKS[i][1], 1));
+        }
+        Random random = new Random(seed);
+        for (int i = 0; i < generated; i++) {
+            books.add(new Book(String.format("979%010d", i), phrase(random), phrase(random), 1));
+        }
+        List<String> queries = queries();
+        for (int i = 0; i < generated; i++) {
+            Book b = books.get(random.nextInt(books.size()));
+            String field = random.nextBoolean() ? b.getTitle() : b.getAuthor();
+            int from = random.nextInt(field.length());
+            queries.add(field.substring(from, Math.min(field.length(), from + 1 + random.nextInt(8))));
+        }
+        List<String> reversed = new ArrayList<>(queries);
+        Collections.reverse(reversed);
+
+        SearchCheck check = new SearchCheck();
+        Path dir = Files.createTempDirectory("library-check");
+        try {
+            int run = 0;
+            for (List<String> order : List.of(queries, reversed)) {
+                File single = new File(dir.toFile(), "single-" + run);
+                single.mkdirs();
+                check.searches("LibraryService", new LibraryService(new FileStorage(single), false), books, order, true);
+                File sharded = new File(dir.toFile(), "sharded-" + run);
+                sharded.mkdirs();
+                check.searches("ShardedLibraryService", new ShardedLibraryService(sharded, shards, false), books, order, false);
+                run++;
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+        if (!check.failures.isEmpty()) {
+            int shown = Math.min(20, check.failures.size());
+            for (int i = 0; i < shown; i++) System.out.println("FAIL: " + check.failures.get(i));
+            System.out.println(check.failures.size() + " of " + check.checks + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("OK (" + check.checks + " checks)");
+    }
+
+    // Every pair of words in both orders, next to each other, plus spacing and case variants.
+    private static List<String> queries() {
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < WORDS.length; i++) {
+            queries.add(WORDS[i]);
+            for (int j = i + 1; j < WORDS.length; j++) {
+                queries.add(WORDS[i] + " " + WORDS[j]);
+                queries.add(WORDS[j] + " " + WORDS[i]);
+                queries.add(WORDS[i] + "  " + WORDS[j].toUpperCase(Locale.ROOT));
+            }
+        }
+        queries.add("Java Basics");
+        queries.add("basics java");
+        queries.add("java-script");
+        queries.add("script java");
+        queries.add("#");
+        queries.add("");
+        return queries;
+    }
+
+    // Two to four words of WORDS, in random case, separated by spaces or punctuation.
+    private static String phrase(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int words = 2 + random.nextInt(3);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(random.nextInt(4) == 0 ? "-" : " ");
+            String w = WORDS[random.nextInt(WORDS.length)];
+            sb.append(random.nextBoolean() ? w : w.toUpperCase(Locale.ROOT));
+        }
+        return sb.toString();
+    }
+
+    // Single services return catalogue order; a sharded one returns its shards' results in turn,
+    // so only the set of books is compared there.
+    private void searches(String name, Library library, List<Book> books, List<String> queries, boolean ordered) {
+        try {
+            library.addBooks(books);
+            for (String q : queries) {
+                compare(name + " title \"" + q + "\"", expected(books, q, false), library.searchBooksByTitle(q), ordered);
+                compare(name + " author \"" + q + "\"", expected(books, q, true), library.searchBooksByAuthor(q), ordered);
+            }
+        } finally {
+            library.close();
+        }
+    }
+
+    // Every query word starts a word of the field, or the field contains the whole query.
+    private static List<String> expected(List<Book> books, String query, boolean byAuthor) {
+        List<String> terms = SearchIndex.tokenize(query);
+        String needle = query.toLowerCase(Locale.ROOT);
+        List<String> result = new ArrayList<>();
+        for (Book b : books) {
+            String field = byAuthor ? b.getAuthor() : b.getTitle();
+            List<String> tokens = SearchIndex.tokenize(field);
+            boolean all = !terms.isEmpty();
+            for (String term : terms) {
+                boolean found = false;
+                for (String t : tokens) found |= t.startsWith(term);
+                all &= found;
+            }
+            if (all || field.toLowerCase(Locale.ROOT).contains(needle)) result.add(b.getIsbn());
+        }
+        return result;
+    }
+
+    private void compare(String what, List<String> expected, List<Book> actual, boolean ordered) {
+        checks++;
+        List<String> got = new ArrayList<>();
+        for (Book b : actual) got.add(b.getIsbn());
+        if (!ordered) {
+            expected = new ArrayList<>(expected);
+            Collections.sort(expected);
+            Collections.sort(got);
+        }
+        if (!expected.equals(got)) failures.add(what + ": expected " + expected + ", got " + got);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
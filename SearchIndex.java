@@ -0,0 +1,150 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+
+// Inverted index from normalized tokens to document IDs (positions in the books list).
+// Tokens are kept sorted so a query term matches every token it is a prefix of. The
+// lower-cased text is also indexed by its three-character substrings, so a query found
+// anywhere in the text only needs checking against the documents holding its rarest one.
+public class SearchIndex {
+    private static final int GRAM = 3;
+
+    private final TreeMap<String, Postings> tokens = new TreeMap<>();
+    private final HashMap<Long, Postings> grams = new HashMap<>();
+
+    public void clear() {
+        tokens.clear();
+        grams.clear();
+    }
+
+    public void add(int docId, String text) {
+        for (String token : tokenize(text)) {
+            tokens.computeIfAbsent(token, t -> new Postings()).add(docId);
+        }
+        if (text == null) return;
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (int i = 0; i + GRAM <= lower.length(); i++) {
+            grams.computeIfAbsent(gram(lower, i), g -> new Postings()).add(docId);
+        }
+    }
+
+    // Documents where every query term starts a token, or whose text contains the whole query
+    // (both lower-cased with Locale.ROOT), in document order. text gives a document's text by
+    // ID, for the documents 0 to docCount - 1.
+    public int[] searchText(String query, IntFunction<String> text, int docCount) {
+        BitSet hits = new BitSet();
+        for (int id : search(query, true)) hits.set(id);
+        String needle = query.toLowerCase(Locale.ROOT);
+        if (needle.length() < GRAM) {
+            for (int id = 0; id < docCount; id++) {
+                if (!hits.get(id) && contains(text.apply(id), needle)) hits.set(id);
+            }
+            return hits.stream().toArray();
+        }
+        Postings rarest = null;
+        for (int i = 0; i + GRAM <= needle.length(); i++) {
+            Postings p = grams.get(gram(needle, i));
+            if (p == null) return hits.stream().toArray();
+            if (rarest == null || p.size < rarest.size) rarest = p;
+        }
+        for (int i = 0; i < rarest.size; i++) {
+            int id = rarest.ids[i];
+            if (!hits.get(id) && contains(text.apply(id), needle)) hits.set(id);
+        }
+        return hits.stream().toArray();
+    }
+
+    private static boolean contains(String text, String needle) {
+        return text != null && text.toLowerCase(Locale.ROOT).contains(needle);
+    }
+
+    private static long gram(String s, int i) {
+        return (long) s.charAt(i) << 32 | (long) s.charAt(i + 1) << 16 | s.charAt(i + 2);
+    }
+
+    public int[] search(String query, boolean matchAll) {
+        return search(query, matchAll, this);
+    }
+
+    // Returns matching document IDs, best first. A term matches a document if it matches in
+    // any of the given indexes. With matchAll only documents matching every term are returned;
+    // otherwise documents are ranked by how many terms they match.
+    public static int[] search(String query, boolean matchAll, SearchIndex... indexes) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) return new int[0];
+
+        BitSet all = null;
+        List<BitSet> perTerm = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            BitSet hits = new BitSet();
+            for (SearchIndex index : indexes) index.collect(term, hits);
+            if (matchAll) {
+                if (all == null) all = hits;
+                else all.and(hits);
+                if (all.isEmpty()) return new int[0];
+            } else {
+                perTerm.add(hits);
+            }
+        }
+        if (matchAll) return all.stream().toArray();
+
+        BitSet any = new BitSet();
+        for (BitSet hits : perTerm) any.or(hits);
+        int[] ids = any.stream().toArray();
+        int[] scores = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            for (BitSet hits : perTerm) {
+                if (hits.get(ids[i])) scores[i]++;
+            }
+        }
+        // Stable ordering: higher score first, then catalogue order.
+        Integer[] order = new Integer[ids.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> scores[a] != scores[b] ? scores[b] - scores[a] : ids[a] - ids[b]);
+        int[] ranked = new int[ids.length];
+        for (int i = 0; i < ranked.length; i++) ranked[i] = ids[order[i]];
+        return ranked;
+    }
+
+    private void collect(String term, BitSet hits) {
+        Map<String, Postings> range = tokens.subMap(term, true, term + Character.MAX_VALUE, false);
+        for (Postings p : range.values()) {
+            for (int i = 0; i < p.size; i++) hits.set(p.ids[i]);
+        }
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                out.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return out;
+    }
+
+    private static class Postings {
+        int[] ids = new int[2];
+        int size;
+
+        void add(int id) {
+            // Documents are indexed in ascending order, so a repeated token repeats the last ID.
+            if (size > 0 && ids[size - 1] == id) return;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+}
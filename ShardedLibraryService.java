@@ -0,0 +1,541 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+
+// Splits the catalogue and its loans across independent LibraryServices by ISBN hash. Each
+// shard has its own directory (shard-0, shard-1, ... under the data directory), files, journal,
+// writer thread and locks, so checkouts of books on different shards share nothing. Members
+// are kept once, in the first shard, and the other shards look them up there; the overdue
+// sweeps and journal compactions of all shards run on one shared background thread. Searches
+// and listings fan out to all shards in parallel and are merged; listings are concatenated in
+// shard order.
+//
+// Each member's loan changes are serialized here, on a member stripe, so the borrowing limit
+// holds across shards and all-or-nothing batches can check their items up front.
+public class ShardedLibraryService implements Library {
+    static final String SHARDS_FILE = "shards.txt";
+
+    private final LibraryService[] shards;
+    private final ExecutorService fanOut = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService background = LibraryService.newBackgroundExecutor();
+    private final StripedLocks memberLocks = new StripedLocks(256);
+    // Taken after the member stripes by every issue, so a batch's availability check holds
+    // until its parts are issued.
+    private final StripedLocks isbnLocks = new StripedLocks(256);
+    // Enforced here; the shards themselves run without a limit.
+    private volatile int maxLoansPerMember = Math.max(0, Integer.getInteger("library.maxLoansPerMember", 0));
+
+    public ShardedLibraryService(int shardCount) {
+        this(new File(System.getProperty("library.dataDir", ".")), shardCount, Boolean.getBoolean("library.journal"));
+    }
+
+    public ShardedLibraryService(File dir, int shardCount, boolean journaled) {
+        if (shardCount < 1) throw new IllegalArgumentException("shard count must be positive: " + shardCount);
+        File[] dirs = prepareLayout(dir, shardCount);
+        shards = new LibraryService[shardCount];
+        // The first shard holds the members, so it opens before the others replay their journals.
+        shards[0] = new LibraryService(new FileStorage(dirs[0]), journaled, null, background);
+        List<Callable<LibraryService>> opens = new ArrayList<>();
+        for (int i = 1; i < shardCount; i++) {
+            File d = dirs[i];
+            opens.add(() -> new LibraryService(new FileStorage(d), journaled, shards[0], background));
+        }
+        List<LibraryService> opened = run(opens);
+        for (int i = 0; i < shardCount; i++) {
+            if (i > 0) shards[i] = opened.get(i - 1);
+            shards[i].setMaxLoansPerMember(0);
+        }
+    }
+
+    // The shard directories of dir, or null if it is not a sharded data directory.
+    public static File[] shardDirs(File dir) {
+        File marker = new File(dir, SHARDS_FILE);
+        if (!marker.exists()) return null;
+        int count = readShardCount(marker);
+        File[] dirs = new File[count];
+        for (int i = 0; i < count; i++) dirs[i] = new File(dir, "shard-" + i);
+        return dirs;
+    }
+
+    // Records the shard count on first use. Books are placed by hash, so the same data can't
+    // be opened with a different count, and an unsharded directory isn't silently ignored.
+    private static File[] prepareLayout(File dir, int shardCount) {
+        File marker = new File(dir, SHARDS_FILE);
+        if (marker.exists()) {
+            int existing = readShardCount(marker);
+            if (existing != shardCount) {
+                throw new IllegalStateException(dir + " holds " + existing + " shards, not " + shardCount);
+            }
+        } else {
+            if (new File(dir, FileStorage.BOOKS_FILE).exists() || new File(dir, BinarySnapshot.FILE).exists()) {
+                throw new IllegalStateException(dir + " holds unsharded data; use an empty directory for sharded mode");
+            }
+            try {
+                Files.createDirectories(dir.toPath());
+                Files.write(marker.toPath(), List.of(Integer.toString(shardCount)), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot write " + marker + ": " + e.getMessage(), e);
+            }
+        }
+        File[] dirs = new File[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            dirs[i] = new File(dir, "shard-" + i);
+            dirs[i].mkdirs();
+        }
+        return dirs;
+    }
+
+    private static int readShardCount(File marker) {
+        try {
+            return Integer.parseInt(new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException("cannot read " + marker + ": " + e.getMessage(), e);
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    private int shardIndex(String isbn) {
+        return isbn == null ? 0 : Math.floorMod(LibraryService.key(isbn).hashCode(), shards.length);
+    }
+
+    private LibraryService shardFor(String isbn) {
+        return shards[shardIndex(isbn)];
+    }
+
+    // Runs the tasks in parallel and returns their results in order.
+    private <T> List<T> run(List<Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) futures.add(fanOut.submit(task));
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> f : futures) {
+            try {
+                results.add(f.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted waiting for a shard", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IllegalStateException(cause);
+            }
+        }
+        return results;
+    }
+
+    private <T> List<T> all(Function<LibraryService, T> op) {
+        List<Callable<T>> tasks = new ArrayList<>(shards.length);
+        for (LibraryService s : shards) tasks.add(() -> op.apply(s));
+        return run(tasks);
+    }
+
+    public void addBook(Book book) {
+        shardFor(book.getIsbn()).addBook(book);
+    }
+
+    public void addBooks(Collection<Book> newBooks) {
+        Map<Integer, List<Book>> byShard = new HashMap<>();
+        for (Book b : newBooks) byShard.computeIfAbsent(shardIndex(b.getIsbn()), k -> new ArrayList<>()).add(b);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Map.Entry<Integer, List<Book>> e : byShard.entrySet()) {
+            tasks.add(() -> {
+                shards[e.getKey()].addBooks(e.getValue());
+                return null;
+            });
+        }
+        run(tasks);
+    }
+
+    public Book findBookByIsbn(String isbn) {
+        return shardFor(isbn).findBookByIsbn(isbn);
+    }
+
+    public List<Book> searchBooksByTitle(String titlePart) {
+        return concat(all(s -> s.searchBooksByTitle(titlePart)));
+    }
+
+    public List<Book> searchBooksByAuthor(String authorPart) {
+        return concat(all(s -> s.searchBooksByAuthor(authorPart)));
+    }
+
+    // Each shard ranks its own matches; the merged list is ranked again the same way, by how
+    // many query words a book matches, keeping shard order among equals.
+    public List<Book> searchBooksByKeywords(String query) {
+        List<Book> merged = new ArrayList<>(concat(all(s -> s.searchBooksByKeywords(query))));
+        List<String> terms = SearchIndex.tokenize(query);
+        Map<Book, Integer> scores = new HashMap<>();
+        for (Book b : merged) {
+            List<String> tokens = new ArrayList<>(SearchIndex.tokenize(b.getTitle()));
+            tokens.addAll(SearchIndex.tokenize(b.getAuthor()));
+            int score = 0;
+            for (String term : terms) {
+                for (String t : tokens) {
+                    if (t.startsWith(term)) {
+                        score++;
+                        break;
+                    }
+                }
+            }
+            scores.put(b, score);
+        }
+        merged.sort(Comparator.comparing((Book b) -> scores.get(b)).reversed());
+        return merged;
+    }
+
+    public List<Book> getAllBooks() {
+        return concat(all(LibraryService::getAllBooks));
+    }
+
+    public void addMember(Member member) {
+        shards[0].addMember(member);
+    }
+
+    public int addMembers(Collection<Member> newMembers) {
+        return shards[0].addMembers(newMembers);
+    }
+
+    public Member findMemberById(String id) {
+        return shards[0].findMemberById(id);
+    }
+
+    public List<Member> getAllMembers() {
+        return shards[0].getAllMembers();
+    }
+
+    public boolean isBookAvailable(String isbn) {
+        return shardFor(isbn).isBookAvailable(isbn);
+    }
+
+    public boolean issueBook(String isbn, String memberId, int days) {
+        ReentrantLock lock = memberLocks.lockFor(LibraryService.key(memberId));
+        ReentrantLock isbnLock = isbnLocks.lockFor(LibraryService.key(isbn));
+        lock.lock();
+        isbnLock.lock();
+        try {
+            int max = maxLoansPerMember;
+            if (max > 0 && getActiveLoanCount(memberId) >= max) return false;
+            return shardFor(isbn).issueBook(isbn, memberId, days);
+        } finally {
+            isbnLock.unlock();
+            lock.unlock();
+        }
+    }
+
+    public double returnBook(String isbn, String memberId) {
+        ReentrantLock lock = memberLocks.lockFor(LibraryService.key(memberId));
+        lock.lock();
+        try {
+            return shardFor(isbn).returnBook(isbn, memberId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Every item is checked first, the way a single LibraryService checks a batch, and the
+    // parts that pass are then issued on their shards in parallel. The member and ISBN stripes
+    // are held throughout, so nothing that was checked can change before its part is issued,
+    // and with allOrNothing either every part goes through or none is started.
+    public LoanBatch issueBooks(List<LoanBatch.Item> items, boolean allOrNothing) {
+        LoanBatch batch = new LoanBatch(items);
+        List<ReentrantLock> locks = lockMembers(items);
+        List<String> isbns = new ArrayList<>(items.size());
+        for (LoanBatch.Item item : items) isbns.add(LibraryService.key(item.isbn));
+        List<ReentrantLock> heldIsbns = lock(isbnLocks, isbns);
+        try {
+            int max = maxLoansPerMember;
+            // Copies already promised to earlier items of this batch, by ISBN, and loans by member.
+            Map<String, Integer> taken = new HashMap<>();
+            Map<String, Integer> borrowed = new HashMap<>();
+            for (int i = 0; i < items.size(); i++) {
+                LoanBatch.Item item = items.get(i);
+                String isbn = LibraryService.key(item.isbn);
+                String member = LibraryService.key(item.memberId);
+                if (findBookByIsbn(item.isbn) == null) {
+                    batch.fail(i, "unknown ISBN");
+                } else if (findMemberById(item.memberId) == null) {
+                    batch.fail(i, "unknown member");
+                } else {
+                    int promised = taken.getOrDefault(isbn, 0);
+                    int out = borrowed.computeIfAbsent(member, k -> max > 0 ? getActiveLoanCount(item.memberId) : 0);
+                    if (shardFor(item.isbn).availableCopies(item.isbn) - promised <= 0) {
+                        batch.fail(i, "not available");
+                    } else if (max > 0 && out >= max) {
+                        batch.fail(i, "loan limit reached");
+                    } else {
+                        taken.put(isbn, promised + 1);
+                        borrowed.put(member, out + 1);
+                    }
+                }
+            }
+            if (allOrNothing && !batch.allSucceeded()) {
+                batch.rollBack();
+                return batch;
+            }
+            List<Part> parts = split(items, batch);
+            run(parts, p -> shards[p.shard].issueBooks(p.items, allOrNothing));
+            for (Part p : parts) p.copyResults(batch);
+            return batch;
+        } finally {
+            unlock(heldIsbns);
+            unlock(locks);
+        }
+    }
+
+    // With allOrNothing every item is checked against the shards first; the member locks keep
+    // the loans from changing before they are returned.
+    public LoanBatch returnBooks(List<LoanBatch.Item> items, boolean allOrNothing) {
+        LoanBatch batch = new LoanBatch(items);
+        List<ReentrantLock> locks = lockMembers(items);
+        try {
+            if (allOrNothing) {
+                Map<String, Integer> wanted = new HashMap<>();
+                Map<String, List<Loan>> outByMember = new HashMap<>();
+                for (int i = 0; i < items.size(); i++) {
+                    LoanBatch.Item item = items.get(i);
+                    String isbn = LibraryService.key(item.isbn);
+                    int n = wanted.merge(isbn + '\0' + LibraryService.key(item.memberId), 1, Integer::sum);
+                    List<Loan> out = outByMember.computeIfAbsent(LibraryService.key(item.memberId),
+                            k -> getActiveLoans(item.memberId));
+                    int have = 0;
+                    for (Loan l : out) {
+                        if (LibraryService.key(l.getIsbn()).equals(isbn)) have++;
+                    }
+                    if (have < n) batch.fail(i, "no active loan");
+                }
+                if (!batch.allSucceeded()) {
+                    batch.rollBack();
+                    return batch;
+                }
+            }
+            List<Part> parts = split(items, batch);
+            run(parts, p -> shards[p.shard].returnBooks(p.items, false));
+            for (Part p : parts) p.copyResults(batch);
+            return batch;
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    // Items of one shard, with their positions in the caller's batch.
+    private static class Part {
+        final int shard;
+        final List<LoanBatch.Item> items = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+        LoanBatch result;
+
+        Part(int shard) {
+            this.shard = shard;
+        }
+
+        // Copies outcomes and fines back.
+        void copyResults(LoanBatch batch) {
+            for (int j = 0; j < items.size(); j++) {
+                int i = positions.get(j);
+                if (!result.succeeded(j)) batch.fail(i, result.getError(j));
+                else batch.setFine(i, result.getFine(j));
+            }
+        }
+    }
+
+    // Items not already failed, grouped by shard.
+    private List<Part> split(List<LoanBatch.Item> items, LoanBatch batch) {
+        Part[] byShard = new Part[shards.length];
+        List<Part> parts = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            if (!batch.succeeded(i)) continue;
+            int s = shardIndex(items.get(i).isbn);
+            if (byShard[s] == null) parts.add(byShard[s] = new Part(s));
+            byShard[s].items.add(items.get(i));
+            byShard[s].positions.add(i);
+        }
+        return parts;
+    }
+
+    private void run(List<Part> parts, Function<Part, LoanBatch> op) {
+        List<Callable<Void>> tasks = new ArrayList<>(parts.size());
+        for (Part p : parts) {
+            tasks.add(() -> {
+                p.result = op.apply(p);
+                return null;
+            });
+        }
+        run(tasks);
+    }
+
+    private List<ReentrantLock> lockMembers(List<LoanBatch.Item> items) {
+        List<String> keys = new ArrayList<>(items.size());
+        for (LoanBatch.Item item : items) keys.add(LibraryService.key(item.memberId));
+        return lock(memberLocks, keys);
+    }
+
+    private static List<ReentrantLock> lock(StripedLocks stripes, List<String> keys) {
+        List<ReentrantLock> locks = stripes.locksFor(keys);
+        for (ReentrantLock lock : locks) lock.lock();
+        return locks;
+    }
+
+    private static void unlock(List<ReentrantLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) locks.get(i).unlock();
+    }
+
+    public void setMaxLoansPerMember(int max) {
+        maxLoansPerMember = Math.max(0, max);
+    }
+
+    public int getMaxLoansPerMember() {
+        return maxLoansPerMember;
+    }
+
+    // Each shard's history and active loans, shard by shard. Every part is a point-in-time
+    // view of its shard, but the shards are not captured at the same instant.
+    public List<Loan> getAllLoans() {
+        return concat(all(LibraryService::getAllLoans));
+    }
+
+    public List<Loan> getActiveLoans() {
+        return concat(all(LibraryService::getActiveLoans));
+    }
+
+    public List<Loan> getActiveLoans(String memberId) {
+        return concat(all(s -> s.getActiveLoans(memberId)));
+    }
+
+    public int getActiveLoanCount(String memberId) {
+        int n = 0;
+        for (LibraryService s : shards) n += s.getActiveLoanCount(memberId);
+        return n;
+    }
+
+    public List<Loan> getLoanHistory() {
+        return concat(all(LibraryService::getLoanHistory));
+    }
+
+    public List<Loan> getMemberHistory(String memberId) {
+        return concat(all(s -> s.getMemberHistory(memberId)));
+    }
+
+    // The shards are scanned in parallel and their results merged in shard order.
+    public <A> A scanLoans(Supplier<A> newPart, BiConsumer<A, Loan> accept, BinaryOperator<A> merge) {
+        A result = null;
+        for (A part : all(s -> s.scanLoans(newPart, accept, merge))) result = result == null ? part : merge.apply(result, part);
+        return result;
+    }
+
+    // Longest overdue first, as on a single service.
+    public List<Loan> getOverdueLoans() {
+        List<Loan> merged = new ArrayList<>(concat(all(LibraryService::getOverdueLoans)));
+        merged.sort(Comparator.comparing(Loan::getDueDate));
+        return merged;
+    }
+
+    public double getFineDue(Loan loan) {
+        return shardFor(loan.getIsbn()).getFineDue(loan);
+    }
+
+    public double getOutstandingFines(String memberId) {
+        double total = 0;
+        for (LibraryService s : shards) total += s.getOutstandingFines(memberId);
+        return total;
+    }
+
+    // The shards' latest sweeps added together, or null before any sweep.
+    public OverdueTracker.Report getLastOverdueReport() {
+        OverdueTracker.Report latest = null;
+        List<Loan> newlyOverdue = new ArrayList<>();
+        int overdueCount = 0;
+        double accrued = 0;
+        for (LibraryService s : shards) {
+            OverdueTracker.Report r = s.getLastOverdueReport();
+            if (r == null) continue;
+            if (latest == null || r.date.isAfter(latest.date)) latest = r;
+            newlyOverdue.addAll(r.newlyOverdue);
+            overdueCount += r.overdueCount;
+            accrued += r.accruedFines;
+        }
+        return latest == null ? null : new OverdueTracker.Report(latest.date, newlyOverdue, overdueCount, accrued);
+    }
+
+    // The shards' caches added together.
+    public SearchCache.Stats getSearchCacheStats() {
+        SearchCache.Stats total = null;
+        for (LibraryService s : shards) total = total == null ? s.getSearchCacheStats() : total.plus(s.getSearchCacheStats());
+        return total;
+    }
+
+    public void compact() {
+        all(s -> {
+            s.compact();
+            return null;
+        });
+    }
+
+    public void close() {
+        all(s -> {
+            s.close();
+            return null;
+        });
+        background.shutdown();
+        fanOut.shutdown();
+    }
+
+    // Read-only concatenation of the parts, which must not change afterwards.
+    private static <T> List<T> concat(List<List<T>> parts) {
+        if (parts.size() == 1) return parts.get(0);
+        return new ConcatList<>(parts);
+    }
+
+    private static class ConcatList<T> extends AbstractList<T> implements RandomAccess {
+        private final List<List<T>> parts;
+        // starts[i] is the index of the first element of parts.get(i); the last entry is the size.
+        private final int[] starts;
+
+        ConcatList(List<List<T>> parts) {
+            this.parts = parts;
+            this.starts = new int[parts.size() + 1];
+            for (int i = 0; i < parts.size(); i++) starts[i + 1] = starts[i] + parts.get(i).size();
+        }
+
+        @Override
+        public T get(int index) {
+            if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            int p = Arrays.binarySearch(starts, index);
+            // An exact hit may be the start of an empty part; step to the last part starting there.
+            if (p >= 0) {
+                while (p + 1 < parts.size() && starts[p + 1] == index) p++;
+            } else {
+                p = -p - 2;
+            }
+            return parts.get(p).get(index - starts[p]);
+        }
+
+        @Override
+        public int size() {
+            return starts[starts.length - 1];
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+// Single background thread that performs all file writes in submission order.
+// Writes are group-committed: everything queued within one window (or up to one batch)
+// is written, then synced once, and only then are the callers' futures completed.
+public class StorageWriter {
+
+    public interface Write {
+        void run() throws IOException;
+    }
+
+    private static class Op {
+        final String key;
+        final Callable<?> task;
+        final CompletableFuture<Object> done = new CompletableFuture<>();
+
+        Op(String key, Callable<?> task) {
+            this.key = key;
+            this.task = task;
+        }
+    }
+
+    private static final Op SHUTDOWN = new Op(null, () -> null);
+
+    private static final Metrics.Timer BATCH_TIME = Metrics.timer("writer.batch");
+    private static final Metrics.Timer SYNC_TIME = Metrics.timer("writer.sync");
+    private static final Metrics.Counter WRITES = Metrics.counter("writer.writes");
+    // Keyed writes skipped because a later one in the same batch saves the same file.
+    private static final Metrics.Counter COALESCED = Metrics.counter("writer.coalesced");
+
+    private final BlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    private final long windowNanos;
+    private final int maxBatch;
+    private final Write afterBatch;
+    private final Thread thread;
+
+    // afterBatch (may be null) runs once per batch, e.g. to fsync the journal.
+    public StorageWriter(long windowMillis, int maxBatch, Write afterBatch) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+        this.maxBatch = Math.max(1, maxBatch);
+        this.afterBatch = afterBatch;
+        this.thread = new Thread(this::runLoop, "storage-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // Writes submitted with the same non-null key in one batch run once: the write is
+    // expected to save the latest state, so earlier copies are redundant.
+    public CompletableFuture<Void> submit(String key, Write write) {
+        Op op = new Op(key, () -> {
+            write.run();
+            return null;
+        });
+        queue.add(op);
+        return op.done.thenApply(v -> null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        Op op = new Op(null, task);
+        queue.add(op);
+        return (CompletableFuture<T>) (CompletableFuture<?>) op.done;
+    }
+
+    // Blocks until everything submitted so far is durable.
+    public void flush() {
+        submit(null, () -> { }).join();
+    }
+
+    public void close() {
+        queue.add(SHUTDOWN);
+        try {
+            thread.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runLoop() {
+        List<Op> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long left = deadline - System.nanoTime();
+                    Op next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            int shutdownAt = batch.indexOf(SHUTDOWN);
+            if (shutdownAt >= 0) {
+                // Anything queued after close() is still written rather than dropped.
+                batch.remove(shutdownAt);
+                queue.drainTo(batch);
+                batch.remove(SHUTDOWN);
+                running = false;
+            }
+            process(batch);
+            batch.clear();
+        }
+    }
+
+    private void process(List<Op> batch) {
+        long start = System.nanoTime();
+        Map<String, Integer> lastByKey = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i).key != null) lastByKey.put(batch.get(i).key, i);
+        }
+
+        Object[] results = new Object[batch.size()];
+        Throwable[] errors = new Throwable[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            Op op = batch.get(i);
+            if (op.key != null && lastByKey.get(op.key) != i) {
+                COALESCED.increment();
+                continue;
+            }
+            WRITES.increment();
+            try {
+                results[i] = op.task.call();
+            } catch (Exception e) {
+                errors[i] = e;
+            }
+        }
+
+        Throwable syncError = null;
+        if (afterBatch != null) {
+            long syncStart = System.nanoTime();
+            try {
+                afterBatch.run();
+            } catch (IOException e) {
+                syncError = e;
+            }
+            SYNC_TIME.record(syncStart);
+        }
+        BATCH_TIME.record(start);
+
+        for (int i = 0; i < batch.size(); i++) {
+            Op op = batch.get(i);
+            int from = op.key != null ? lastByKey.get(op.key) : i;
+            Throwable error = errors[from] != null ? errors[from] : syncError;
+            if (error != null) op.done.completeExceptionally(error);
+            else op.done.complete(results[from]);
+        }
+    }
+}
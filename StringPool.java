@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+
+// Interns strings to dense int IDs. Each ID also knows the ID of its lower-cased key form, so
+// case-insensitive comparisons of pooled strings are int comparisons. Not thread-safe.
+public class StringPool {
+    private String[] strings = new String[64];
+    private int[] keyIds = new int[64];
+    private int size;
+    // Open-addressing table of id + 1 (0 = empty).
+    private int[] table = new int[128];
+
+    public int size() {
+        return size;
+    }
+
+    public String get(int id) {
+        return strings[id];
+    }
+
+    // Current backing array. Entries below size() are never changed, and a full array is
+    // replaced rather than reused, so the returned array stays valid for those IDs.
+    String[] strings() {
+        return strings;
+    }
+
+    // ID of the key form (LibraryService.key) of the string with the given ID.
+    public int keyId(int id) {
+        return keyIds[id];
+    }
+
+    public int intern(String s) {
+        return intern(s, 0, s.length(), s);
+    }
+
+    // Looks the chars up without allocating; a String is only created for a new entry.
+    public int intern(CharSequence cs, int from, int to) {
+        return intern(cs, from, to, null);
+    }
+
+    // Returns -1 if the string was never interned.
+    public int find(String s) {
+        int mask = table.length - 1;
+        for (int i = hash(s, 0, s.length()) & mask; ; i = (i + 1) & mask) {
+            int slot = table[i];
+            if (slot == 0) return -1;
+            if (equals(strings[slot - 1], s, 0, s.length())) return slot - 1;
+        }
+    }
+
+    // ID of the key form of s (LibraryService.key), or -1 if no string with that form was interned.
+    public int findKey(String s) {
+        return find(LibraryService.key(s));
+    }
+
+    private int intern(CharSequence cs, int from, int to, String existing) {
+        int h = hash(cs, from, to);
+        int mask = table.length - 1;
+        int i = h & mask;
+        for (int slot; (slot = table[i]) != 0; i = (i + 1) & mask) {
+            if (equals(strings[slot - 1], cs, from, to)) return slot - 1;
+        }
+        String s = existing != null ? existing : cs.subSequence(from, to).toString();
+        int id = size++;
+        if (id == strings.length) {
+            strings = Arrays.copyOf(strings, id * 2);
+            keyIds = Arrays.copyOf(keyIds, id * 2);
+        }
+        strings[id] = s;
+        keyIds[id] = id;
+        table[i] = id + 1;
+        if (size * 2 > table.length) rehash();
+        String lower = LibraryService.key(s);
+        if (!lower.equals(s)) keyIds[id] = intern(lower);
+        return id;
+    }
+
+    private void rehash() {
+        int[] old = table;
+        table = new int[old.length * 2];
+        int mask = table.length - 1;
+        for (int slot : old) {
+            if (slot == 0) continue;
+            String s = strings[slot - 1];
+            int i = hash(s, 0, s.length()) & mask;
+            while (table[i] != 0) i = (i + 1) & mask;
+            table[i] = slot;
+        }
+    }
+
+    private static int hash(CharSequence cs, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) h = 31 * h + cs.charAt(i);
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(String s, CharSequence cs, int from, int to) {
+        if (s.length() != to - from) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != cs.charAt(from + i)) return false;
+        }
+        return true;
+    }
+}
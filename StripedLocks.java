@@ -0,0 +1,39 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+// Fixed pool of locks picked by key hash, so unrelated keys rarely contend
+// while operations on the same key are serialized.
+public class StripedLocks {
+    private final ReentrantLock[] locks;
+
+    public StripedLocks(int stripes) {
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantLock[n];
+        for (int i = 0; i < n; i++) locks[i] = new ReentrantLock();
+    }
+
+    public ReentrantLock lockFor(String key) {
+        return locks[index(key)];
+    }
+
+    // The distinct locks for several keys, always in stripe order, so two callers taking
+    // them in list order can't deadlock each other.
+    public List<ReentrantLock> locksFor(Collection<String> keys) {
+        boolean[] needed = new boolean[locks.length];
+        for (String key : keys) needed[index(key)] = true;
+        List<ReentrantLock> result = new ArrayList<>();
+        for (int i = 0; i < locks.length; i++) {
+            if (needed[i]) result.add(locks[i]);
+        }
+        return result;
+    }
+
+    private int index(String key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= (h >>> 16);
+        return h & (locks.length - 1);
+    }
+}
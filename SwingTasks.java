@@ -0,0 +1,90 @@
+import javax.swing.*;
+import java.awt.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+
+// Runs service calls and table reloads on SwingWorkers so the EDT never waits for a file write.
+// Callbacks run on the EDT. A status bar shows an indeterminate progress bar while anything is
+// running. All methods must be called on the EDT.
+public class SwingTasks {
+    private final JLabel status = new JLabel(" ");
+    private final JProgressBar progress = new JProgressBar();
+    private final JPanel statusBar = new JPanel(new BorderLayout(8, 0));
+    private int running;
+
+    // Models with a reload in flight, mapped to whether another reload was asked for meanwhile.
+    private final Map<ListTableModel<?>, Boolean> reloading = new HashMap<>();
+
+    public SwingTasks() {
+        progress.setIndeterminate(true);
+        progress.setVisible(false);
+        statusBar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        statusBar.add(status, BorderLayout.CENTER);
+        statusBar.add(progress, BorderLayout.EAST);
+    }
+
+    public JComponent getStatusBar() {
+        return statusBar;
+    }
+
+    public <T> void run(String label, Callable<T> work, Consumer<T> done) {
+        run(label, work, done, null);
+    }
+
+    // always runs on the EDT after done, or after the failure is reported.
+    private <T> void run(String label, Callable<T> work, Consumer<T> done, Runnable always) {
+        started(label);
+        new SwingWorker<T, Void>() {
+            @Override
+            protected T doInBackground() throws Exception {
+                return work.call();
+            }
+
+            @Override
+            protected void done() {
+                finished();
+                try {
+                    T result = get();
+                    if (done != null) done.accept(result);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(null, label + " failed: " + cause.getMessage());
+                } finally {
+                    if (always != null) always.run();
+                }
+            }
+        }.execute();
+    }
+
+    // Reloads the model in the background. Requests made while a reload of the same model is
+    // running collapse into a single reload after it finishes.
+    public <T> void reload(ListTableModel<T> model) {
+        if (reloading.containsKey(model)) {
+            reloading.put(model, true);
+            return;
+        }
+        reloading.put(model, false);
+        run("Loading", model::load, model::apply, () -> {
+            if (reloading.remove(model)) reload(model);
+        });
+    }
+
+    private void started(String label) {
+        running++;
+        status.setText(label + "...");
+        progress.setVisible(true);
+    }
+
+    private void finished() {
+        if (--running == 0) {
+            status.setText(" ");
+            progress.setVisible(false);
+        }
+    }
+}
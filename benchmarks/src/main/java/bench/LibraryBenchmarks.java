@@ -0,0 +1,201 @@
+package bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// JMH versions of the LibraryBenchmark measurements, on the same synthetic data (written by
+// LibraryBenchmark.generate). JMH will not run benchmarks in the default package and a named
+// package cannot refer to classes in it, so the library is called through method handles held
+// in static finals, which the JIT inlines like direct calls. Issues are paired with returns so
+// the dataset stays the same size however many ops JMH runs.
+//
+// Results go out as JMH JSON, one file per run, to compare between releases:
+//   java -jar benchmarks/target/benchmarks.jar -rf json -rff benchmark-results.json
+// The 10M-record point needs a few GB of heap and takes a while; -p records=10000,1000000
+// leaves it out.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LibraryBenchmarks {
+
+    private static final String[] WORDS = {"java", "basics", "advanced", "history", "modern", "garden",
+            "ocean", "physics", "poetry", "stories", "guide", "principles", "design", "systems", "art"};
+
+    private static final Class<?> BOOK = type("Book");
+    private static final Class<?> LOAN = type("Loan");
+    private static final Class<?> FILE_STORAGE = type("FileStorage");
+    private static final Class<?> LOAN_STORE = type("LoanStore");
+    private static final Class<?> SERVICE = type("LibraryService");
+
+    private static final MethodHandle GENERATE = method(type("LibraryBenchmark"), "generate", File.class, int.class, int.class, int.class);
+    private static final MethodHandle KIOSK_BATCH = method(type("LibraryBenchmark"), "kioskBatch", int.class, int.class, int.class);
+    private static final MethodHandle NEW_STORAGE = constructor(FILE_STORAGE, File.class);
+    private static final MethodHandle NEW_SERVICE = constructor(SERVICE, FILE_STORAGE, boolean.class);
+    private static final MethodHandle FROM_FILE_STRING = method(BOOK, "fromFileString", String.class);
+    private static final MethodHandle IS_RETURNED = method(LOAN, "isReturned");
+    private static final MethodHandle LOAD_LOANS = method(FILE_STORAGE, "loadLoans");
+    private static final MethodHandle SAVE_LOANS = method(FILE_STORAGE, "saveLoans", List.class, long.class);
+    private static final MethodHandle AS_LIST = method(LOAN_STORE, "asList");
+    private static final MethodHandle IS_BOOK_AVAILABLE = method(SERVICE, "isBookAvailable", String.class);
+    private static final MethodHandle SEARCH_BY_TITLE = method(SERVICE, "searchBooksByTitle", String.class);
+    private static final MethodHandle ISSUE_BOOK = method(SERVICE, "issueBook", String.class, String.class, int.class);
+    private static final MethodHandle RETURN_BOOK = method(SERVICE, "returnBook", String.class, String.class);
+    private static final MethodHandle ISSUE_BOOKS = method(SERVICE, "issueBooks", List.class, boolean.class);
+    private static final MethodHandle RETURN_BOOKS = method(SERVICE, "returnBooks", List.class, boolean.class);
+    private static final MethodHandle CLOSE = method(SERVICE, "close");
+
+    @Param({"10000", "1000000", "10000000"})
+    public int records;
+
+    @Param({"snapshot", "journal"})
+    public String persistence;
+
+    private Path dir;
+    private int bookCount;
+    private int memberCount;
+    private Object storage;
+    private Object saveStorage;
+    private Object service;
+    private String[] sampleLines;
+    private List<Object> active;
+    private int op;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        dir = Files.createTempDirectory("library-bench");
+        bookCount = Math.max(100, records / 10);
+        memberCount = Math.max(100, records / 100);
+        GENERATE.invoke(dir.toFile(), records, bookCount, memberCount);
+        storage = NEW_STORAGE.invoke(dir.toFile());
+
+        List<String> lines = Files.readAllLines(dir.resolve("books.txt"), StandardCharsets.UTF_8);
+        sampleLines = new String[1024];
+        for (int i = 0; i < sampleLines.length; i++) sampleLines[i] = lines.get(i % lines.size());
+
+        // The loans still out, saved as a non-journaled issue or return saves them.
+        File save = new File(dir.toFile(), "save");
+        save.mkdirs();
+        saveStorage = NEW_STORAGE.invoke(save);
+        active = new ArrayList<>();
+        for (Object l : (List<?>) AS_LIST.invoke(LOAD_LOANS.invoke(storage))) {
+            if (!(boolean) IS_RETURNED.invoke(l)) active.add(l);
+        }
+
+        service = NEW_SERVICE.invoke(storage, persistence.equals("journal"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        CLOSE.invoke(service);
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Object bookFromFileString() throws Throwable {
+        return FROM_FILE_STRING.invoke(sampleLines[op++ & 1023]);
+    }
+
+    @Benchmark
+    public Object loadLoans() throws Throwable {
+        return LOAD_LOANS.invoke(storage);
+    }
+
+    @Benchmark
+    public Object saveLoans() throws Throwable {
+        return SAVE_LOANS.invoke(saveStorage, active, 0L);
+    }
+
+    @Benchmark
+    public Object isBookAvailable() throws Throwable {
+        return IS_BOOK_AVAILABLE.invoke(service, isbn(Math.floorMod(op++ * 7919, bookCount)));
+    }
+
+    @Benchmark
+    public Object searchBooksByTitle() throws Throwable {
+        int i = op++;
+        return SEARCH_BY_TITLE.invoke(service, WORDS[i % WORDS.length] + " " + WORDS[(i / 3) % WORDS.length]);
+    }
+
+    @Benchmark
+    public Object issueAndReturnBook() throws Throwable {
+        int i = op++;
+        String isbn = isbn(i % bookCount);
+        String memberId = memberId(i % memberCount);
+        ISSUE_BOOK.invoke(service, isbn, memberId, 14);
+        return RETURN_BOOK.invoke(service, isbn, memberId);
+    }
+
+    // A ten-book kiosk checkout, then the matching returns.
+    @Benchmark
+    public Object issueAndReturnBooks10() throws Throwable {
+        Object batch = KIOSK_BATCH.invoke(op++, bookCount, memberCount);
+        ISSUE_BOOKS.invoke(service, batch, false);
+        return RETURN_BOOKS.invoke(service, batch, false);
+    }
+
+    private static String isbn(int i) {
+        return "978" + String.format("%010d", i);
+    }
+
+    private static String memberId(int i) {
+        return "M" + i;
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("library classes not on the classpath", e);
+        }
+    }
+
+    private static MethodHandle method(Class<?> owner, String name, Class<?>... params) {
+        try {
+            Method m = owner.getDeclaredMethod(name, params);
+            m.setAccessible(true);
+            return MethodHandles.lookup().unreflect(m);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(owner.getName() + "." + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... params) {
+        try {
+            Constructor<?> c = owner.getDeclaredConstructor(params);
+            return MethodHandles.lookup().unreflectConstructor(c);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(owner.getName(), e);
+        }
+    }
+}